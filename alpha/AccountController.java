@@ -16,12 +16,15 @@ import javafx.beans.binding.*;
 import javafx.beans.property.*;
 import javafx.util.*;
 import javafx.fxml.*;
+import org.slf4j.*;
+import plock.math.CashFlowGraph;
 import plock.math.Finance;
 import plock.math.Finance.TmvParams;
 import plock.fx.Controls.DoubleTextField;
 
 // TODO: bind fv/pv to other accounts
 public class AccountController extends GridPane {
+    private static final Logger log = LoggerFactory.getLogger(AccountController.class);
     @FXML protected Finance finance;
     @FXML private ChoiceBox<String> solveFor;
     @FXML private Map<String,String> paramToLabel;
@@ -29,6 +32,7 @@ public class AccountController extends GridPane {
     @FXML private ChoiceBox<AccountController> whichFvForPv;
     @FXML private Button cancelPVImport, cancelFVImport;
     private SimpleListProperty<AccountController> finances = new SimpleListProperty<AccountController>();
+    private CashFlowGraph cashFlowGraph;
     
     private Map<String,String> labelToParam = new HashMap<String,String>();
 //    private Set<AccountController> fvSubscribers = new CopyOnWriteArraySet<AccountController>();
@@ -54,6 +58,8 @@ public class AccountController extends GridPane {
     public void setName(String name) {this.name.set(name);}
     public StringProperty nameProperty() {return name;}
     public Finance getFinance() {return finance;}
+    /** imported pv and fv values are links in the graph, this account must already be added to it by name */
+    public void setCashFlowGraph(CashFlowGraph cashFlowGraph) {this.cashFlowGraph = cashFlowGraph;}
     public void setAccountsList(ObservableList<AccountController> accountNames) {
         whichPvForFv.setItems(accountNames);
         whichFvForPv.setItems(accountNames);
@@ -82,13 +88,15 @@ public class AccountController extends GridPane {
             if (newVal.equals("pmt")) {
             	compPmtField.setStyle("-fx-background-color: lightgrey; -fx-opacity: 1;");
             }
-            // unbind all the old stuff before changing solveFor and rebinding the new stuff
-            oldField.valProperty().unbind();
-            newField.valProperty().unbindBidirectional(finance.getProperty(TmvParams.valueOf(newVal)));
-            finance.solveFor(newVal);
+            // unbind all the old stuff before changing solveFor and rebinding the new stuff, solving once at the end
+            finance.update(f -> {
+                oldField.valProperty().unbind();
+                newField.valProperty().unbindBidirectional(f.getProperty(TmvParams.valueOf(newVal)));
+                f.solveFor(newVal);
 
-        	oldField.valProperty().bindBidirectional(finance.getProperty(TmvParams.valueOf(oldVal)));
-            newField.valProperty().bind(finance.getProperty(finance.getSolveFor()));
+                oldField.valProperty().bindBidirectional(f.getProperty(TmvParams.valueOf(oldVal)));
+                newField.valProperty().bind(f.getProperty(f.getSolveFor()));
+            });
         });
         lookupAll(".text-field").forEach( node -> {
             DoubleTextField tf = (DoubleTextField)node;
@@ -101,21 +109,21 @@ public class AccountController extends GridPane {
             }
         });
         whichPvForFv.valueProperty().addListener((obs, oldPv, newPv) -> {
-            if (newPv == null) {
-                finance.getProperty("fv").unbind();
-                fvField.setStyle("");
-            } else {
-                finance.getProperty("fv").bind(newPv.finance.getProperty("pv"));
+            cashFlowGraph.unlink(getName(), TmvParams.fv);
+            fvField.setStyle("");
+            if (newPv != null && importFrom(whichPvForFv, newPv, TmvParams.pv, TmvParams.fv)) {
                 fvField.setStyle("-fx-background-color: lightgrey; -fx-opacity: 1;");
+            } else if (newPv != null) {
+                whichPvForFv.setValue(null);
             }
         });
         whichFvForPv.valueProperty().addListener((obs, oldFv, newFv) -> {
-            if (newFv == null) {
-                finance.getProperty("pv").unbind();
-                pvField.setStyle("");
-            } else {
+            cashFlowGraph.unlink(getName(), TmvParams.pv);
+            pvField.setStyle("");
+            if (newFv != null && importFrom(whichFvForPv, newFv, TmvParams.fv, TmvParams.pv)) {
                 pvField.setStyle("-fx-background-color: lightgrey; -fx-opacity: 1;");
-                finance.getProperty("pv").bind(newFv.finance.getProperty("fv"));
+            } else if (newFv != null) {
+                whichFvForPv.setValue(null);
             }
         });
     
@@ -145,5 +153,19 @@ public class AccountController extends GridPane {
         cancelPVImport.setOnAction(e -> whichFvForPv.setValue(null));
         cancelFVImport.setOnAction(e -> whichPvForFv.setValue(null));
     }
+    /** @return false if the link was refused, like when it would make a cycle, the reason is left on the choice box */
+    private boolean importFrom(ChoiceBox<AccountController> choice, AccountController from, TmvParams fromParam, TmvParams toParam) {
+        try {
+            cashFlowGraph.link(from.getName(), fromParam, getName(), toParam);
+            choice.setStyle("");
+            choice.setTooltip(null);
+            return true;
+        } catch (IllegalArgumentException e) {
+            log.info("refused to import "+fromParam+" of "+from.getName()+" into "+toParam+" of "+getName()+": "+e.getMessage());
+            choice.setStyle("-fx-border-color: red;");
+            choice.setTooltip(new Tooltip(e.getMessage()));
+            return false;
+        }
+    }
 }
 
@@ -15,6 +15,7 @@ import javafx.beans.property.*;
 import javafx.event.*;
 import javafx.util.*;
 import javafx.fxml.*;
+import plock.math.CashFlowGraph;
 import plock.math.Finance;
 import plock.math.Finance.TmvParams;
 import plock.fx.Controls.DoubleTextField;
@@ -23,11 +24,23 @@ public class CashFlowsController {
     @FXML private TextField newAccountNameField;
     @FXML private Accordion accountsAccordion;
     @FXML private ObservableList<AccountController> accountsInCashFlow;
+    private final CashFlowGraph cashFlowGraph = new CashFlowGraph();
 
     @FXML public void addAccount(ActionEvent event) {
+        String newAccountName = newAccountNameField.getText().trim();
+        // accounts are linked by name, so a name can only be used once
+        if (newAccountName.isEmpty() || cashFlowGraph.contains(newAccountName)) {
+            newAccountNameField.setStyle("-fx-border-color: red;");
+            newAccountNameField.setTooltip(new Tooltip(newAccountName.isEmpty()
+                ? "enter a name for the new cash flow" : "there is already a cash flow named "+newAccountName));
+            return;
+        }
+        newAccountNameField.setStyle("");
+        newAccountNameField.setTooltip(null);
         AccountController newAccount = new AccountController();
-        String newAccountName = newAccountNameField.getText();
         newAccount.setName(newAccountName);
+        cashFlowGraph.add(newAccountName, newAccount.getFinance());
+        newAccount.setCashFlowGraph(cashFlowGraph);
         List panes = accountsAccordion.getPanes();
         accountsInCashFlow.add(newAccount);
         TitledPane newAccountPane = new TitledPane(newAccountName, newAccount);
@@ -36,6 +49,8 @@ public class CashFlowsController {
         // this prevents and account from selecting itself as an import
         newAccount.setAccountsList(accountsInCashFlow.filtered(e->!e.getName().equals(newAccount.getName())));
     }
+    /** the accounts by name, with the links between them */
+    public CashFlowGraph getCashFlowGraph() {return cashFlowGraph;}
     public Map<String,Finance> getFinances() {
         return new LinkedList<TitledPane>(accountsAccordion.getPanes()).stream().collect(Collectors.toMap(
         		p->p.getText(), p->((AccountController)((TitledPane)p).getContent()).getFinance()));
@@ -0,0 +1,94 @@
+package plock.math;
+
+import jdk.incubator.vector.*;
+
+/** The Java 17 version of TvmVector, for META-INF/versions/17 of the multi-release jar.  With the
+ *   jdk.incubator.vector module added, the fv and pv loops run a vector of rows at a time, the pow(), log1p()
+ *   and expm1() across the lanes are intrinsics (SVML on x86), and the r == g, comp == 1 and zero rate cases
+ *   are lanes blended in rather than branches.  The rows left over past the last whole vector, or every row
+ *   when the module isn't there, go through the same scalar loops as the Java 8 version.
+ *   Setting -Dplock.math.scalar=true turns the lanes off, to compare the two.
+ */
+public final class TvmVector {
+    private static final boolean VECTORIZED = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+        && !Boolean.getBoolean("plock.math.scalar");
+
+    private TvmVector() {}
+
+    /** @return true if the loops run across vector lanes */
+    public static boolean isVectorized() {return VECTORIZED;}
+
+    public static void fv(double[] pv, double[] r, double[] g, double[] n, double[] pmt, int[] comp, boolean[] due,
+            double[] out, int from, int to) {
+        int i = VECTORIZED ? Lanes.fv(pv, r, g, n, pmt, comp, due, out, from, to) : from;
+        for (; i<to; i++) {
+            out[i] = TvmKernel.fv(pv[i], r[i], g[i], n[i], pmt[i], comp[i], due[i]);
+        }
+    }
+    /** rows without a direct answer (like n of 0) come out NaN or infinite, for the caller to iterate */
+    public static void pv(double[] fv, double[] r, double[] g, double[] n, double[] pmt, int[] comp, boolean[] due,
+            double[] out, int from, int to) {
+        int i = VECTORIZED ? Lanes.pv(fv, r, g, n, pmt, comp, due, out, from, to) : from;
+        for (; i<to; i++) {
+            out[i] = TvmKernel.solvePv(fv[i], r[i], g[i], n[i], pmt[i], comp[i], due[i]);
+        }
+    }
+
+    /** only loaded when the module is there, so the Vector API classes are never touched without it */
+    private static final class Lanes {
+        private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+        /** as many int lanes as double lanes, in half the bits */
+        private static final VectorSpecies<Integer> INTS =
+            VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLES.vectorBitSize()/2));
+
+        /** @return the first row that wasn't done */
+        static int fv(double[] pv, double[] r, double[] g, double[] n, double[] pmt, int[] comp, boolean[] due,
+                double[] out, int from, int to) {
+            int i = from, upper = from + DOUBLES.loopBound(to-from);
+            for (; i<upper; i+=DOUBLES.length()) {
+                DoubleVector vr = DoubleVector.fromArray(DOUBLES, r, i), vn = DoubleVector.fromArray(DOUBLES, n, i);
+                DoubleVector vg = DoubleVector.fromArray(DOUBLES, g, i), vpmt = DoubleVector.fromArray(DOUBLES, pmt, i);
+                DoubleVector opening = DoubleVector.fromArray(DOUBLES, pv, i).add(vpmt, VectorMask.fromArray(DOUBLES, due, i));
+                DoubleVector payments = vpmt.mul(compPmtFactor(vr, comp, i)).mul(growingAnnuityFactor(vr, vg, vn));
+                opening.mul(rateFactor(vr, vn)).add(payments).intoArray(out, i);
+            }
+            return i;
+        }
+        static int pv(double[] fv, double[] r, double[] g, double[] n, double[] pmt, int[] comp, boolean[] due,
+                double[] out, int from, int to) {
+            int i = from, upper = from + DOUBLES.loopBound(to-from);
+            for (; i<upper; i+=DOUBLES.length()) {
+                DoubleVector vr = DoubleVector.fromArray(DOUBLES, r, i), vn = DoubleVector.fromArray(DOUBLES, n, i);
+                DoubleVector vg = DoubleVector.fromArray(DOUBLES, g, i), vpmt = DoubleVector.fromArray(DOUBLES, pmt, i);
+                DoubleVector payments = vpmt.mul(compPmtFactor(vr, comp, i)).mul(growingAnnuityFactor(vr, vg, vn));
+                DoubleVector.fromArray(DOUBLES, fv, i).sub(payments).div(rateFactor(vr, vn))
+                    .sub(vpmt, VectorMask.fromArray(DOUBLES, due, i)).intoArray(out, i);
+            }
+            return i;
+        }
+
+        private static DoubleVector rateFactor(DoubleVector r, DoubleVector n) {
+            return r.add(1).lanewise(VectorOperators.POW, n);
+        }
+        /** r/c where c compounds comp times to r, comp when c is 0, and 1 when comp is 1 */
+        private static DoubleVector compPmtFactor(DoubleVector r, int[] comp, int i) {
+            DoubleVector vcomp = (DoubleVector)IntVector.fromArray(INTS, comp, i).convertShape(VectorOperators.I2D, DOUBLES, 0);
+            DoubleVector c = r.lanewise(VectorOperators.LOG1P).div(vcomp).lanewise(VectorOperators.EXPM1);
+            return r.div(c).blend(vcomp, c.eq(0)).blend(1, vcomp.eq(1));
+        }
+        /** same as TvmKernel.growingAnnuityFactor(), n*(1+r)^(n-1) in the lanes where r == g */
+        private static DoubleVector growingAnnuityFactor(DoubleVector r, DoubleVector g, DoubleVector n) {
+            DoubleVector d = r.sub(g), growth = g.add(1);
+            DoubleVector a = growth.lanewise(VectorOperators.POW, n)
+                .mul(d.div(growth).lanewise(VectorOperators.LOG1P).mul(n).lanewise(VectorOperators.EXPM1)).div(d);
+            // like TvmKernel, the plain powers where 1+g isn't above 0
+            VectorMask<Double> plain = growth.compare(VectorOperators.LE, 0);
+            if (plain.anyTrue()) {
+                a = a.blend(r.add(1).lanewise(VectorOperators.POW, n).sub(growth.lanewise(VectorOperators.POW, n)).div(d), plain);
+            }
+            VectorMask<Double> same = d.eq(0);
+            if (!same.anyTrue()) {return a;}
+            return a.blend(n.mul(r.add(1).lanewise(VectorOperators.POW, n.sub(1))), same);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** Json is in the default package, so its benchmark has to be too */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class JsonBenchmark {
+    /** how many records, each a map with a nested list */
+    @Param({"10", "1000", "100000"})
+    public int size;
+
+    private List<Object> records;
+
+    @Setup public void setup() {
+        records = new ArrayList<Object>();
+        for (int i=0; i<size; i++) {
+            Map<String,Object> record = new LinkedHashMap<String,Object>();
+            record.put("id", i);
+            record.put("name", "account "+i);
+            record.put("balances", Arrays.asList(i*1.5, i*2.5, i*3.5));
+            records.add(record);
+        }
+    }
+
+    @Benchmark public String toJson() {
+        return Json.toString(records);
+    }
+}
@@ -0,0 +1,38 @@
+package plock.adt;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** adding and then removing a value keeps the map at the same size from one invocation to the next */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class MapOfListsBenchmark {
+    @Param({"10", "1000"})
+    public int keys;
+    /** removing has to walk the key's list, so this is what it scales with */
+    @Param({"10", "1000"})
+    public int valuesPerKey;
+
+    private MapOfLists<Integer,Integer> map;
+    private int next;
+
+    @Setup public void setup() {
+        map = new MapOfLists<Integer,Integer>();
+        for (int k=0; k<keys; k++) {
+            for (int v=0; v<valuesPerKey; v++) {map.addValueToKey(k, v);}
+        }
+    }
+
+    @Benchmark public boolean addThenRemove() {
+        Integer key = next++ % keys;
+        map.addValueToKey(key, -1);
+        return map.removeFirstValueFromKey(key, -1);
+    }
+    @Benchmark public int getKeysForValue() {
+        return map.getKeysForValue(next++ % valuesPerKey).size();
+    }
+}
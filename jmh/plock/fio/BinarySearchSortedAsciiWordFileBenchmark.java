@@ -0,0 +1,72 @@
+package plock.fio;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** looks up words in a generated sorted word file, alternating between words that are and aren't there */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class BinarySearchSortedAsciiWordFileBenchmark {
+    @Param({"1000", "100000", "1000000"})
+    public int words;
+    /** file opens the file on every find(), mapped maps it once, open keeps it open */
+    @Param({"file", "mapped", "open"})
+    public String mode;
+    /** words between the offsets kept in memory, 0 for no index */
+    @Param({"0", "64"})
+    public int index;
+
+    private Path file;
+    private BinarySearchSortedAsciiWordFile search;
+    private int next;
+    /** a document's worth of words, half of them there */
+    private List<String> batch;
+
+    @Setup public void setup() throws IOException {
+        file = Files.createTempFile("words", ".txt");
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.US_ASCII)) {
+            for (int i=0; i<words; i++) {out.write(word(i)+"\n");}
+        }
+        search = mode.equals("mapped") ? BinarySearchSortedAsciiWordFile.map(file.toFile())
+            : mode.equals("open") ? BinarySearchSortedAsciiWordFile.open(file.toFile())
+            : new BinarySearchSortedAsciiWordFile(file.toFile());
+        if (index > 0) {search.index(index);}
+        batch = new ArrayList<String>();
+        for (int i=0; i<1000; i++) {
+            next = (next*31 + 7) % words;
+            batch.add(i%2 == 0 ? word(next) : word(next)+"x");
+        }
+    }
+    @TearDown public void tearDown() throws IOException {
+        search.close();
+        Files.deleteIfExists(file);
+    }
+    /** zero padded so that the words sort the same as the numbers */
+    private static String word(int i) {return String.format("word%09d", i);}
+
+    @Benchmark public Boolean findPresent() {
+        next = (next*31 + 7) % words;
+        return search.find(word(next));
+    }
+    @Benchmark public Boolean findMissing() {
+        next = (next*31 + 7) % words;
+        return search.find(word(next)+"x");
+    }
+    /** the same as a find() of each word in the batch */
+    @Benchmark public boolean[] findAll() {
+        return search.findAll(batch);
+    }
+    /** the first 10 words that start like one that is there, autocomplete style */
+    @Benchmark public List<String> startingWith() {
+        next = (next*31 + 7) % words;
+        return search.startingWith(word(next).substring(0, 10), 10);
+    }
+}
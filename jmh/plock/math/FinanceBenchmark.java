@@ -0,0 +1,42 @@
+package plock.math;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import plock.math.Finance.TmvParams;
+
+/** a full solve per invocation, an input is nudged each time so the cached solution is thrown out */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class FinanceBenchmark {
+    @Param({"fv", "pv", "r", "g", "n", "pmt", "comp_pmt"})
+    public String solveFor;
+    /** periods, which is what the iterative solves scale with */
+    @Param({"5", "30", "360"})
+    public double n;
+
+    private Finance finance;
+    private TmvParams nudged;
+    private double nudgedValue;
+    private boolean flip;
+
+    @Setup public void setup() {
+        Finance account = new Finance().n(n).comp(12).g(.02).r(.08).pmt(200).pv(1000);
+        Map<String,Object> values = account.getValues();
+        values.put("fv", account.getSolution());
+        TmvParams p = TmvParams.valueOf(solveFor);
+        finance = new Finance(values, p);
+        nudged = p == TmvParams.pv ? TmvParams.fv : TmvParams.pv;
+        nudgedValue = finance.getDouble(nudged);
+    }
+
+    @Benchmark public double getSolution() {
+        flip = !flip;
+        finance.set(nudged, flip ? nudgedValue+.01 : nudgedValue);
+        return finance.getSolution();
+    }
+}
@@ -0,0 +1,37 @@
+package plock.math;
+
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** walking a whole monthly loan schedule in double next to the same schedule in cents */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class ScheduleBenchmark {
+    @Param({"12", "360", "1200"})
+    public int periods;
+
+    private Schedule schedule;
+    private CentSchedule cents;
+
+    @Setup public void setup() {
+        schedule = new Schedule(300000, .005, 0, periods, -1798.65, 1, false);
+        cents = new CentSchedule(30000000, .005, 0, periods, -179865, 1, false, RoundingMode.HALF_EVEN).settleTo(0);
+    }
+
+    @Benchmark public double doubles() {
+        Schedule.Cursor c = schedule.cursor();
+        double interest = 0;
+        while (c.next()) {interest += c.getInterest();}
+        return interest;
+    }
+    @Benchmark public long cents() {
+        CentSchedule.Cursor c = cents.cursor();
+        while (c.next()) {}
+        return c.getTotalInterest();
+    }
+}
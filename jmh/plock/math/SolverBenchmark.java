@@ -0,0 +1,38 @@
+package plock.math;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** solving for r against fv, the old doubling and bisecting iterateSolve next to each Math.Solver method.  The
+ *   method is in a state of its own, so iterateSolve() only runs once for each n.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class SolverBenchmark {
+    @State(Scope.Thread)
+    public static class Problem {
+        @Param({"5", "30", "360"})
+        public double n;
+        double target;
+        @Setup public void setup() {target = TvmKernel.fv(1000, .08, .02, n, 200, 12, false);}
+    }
+    @State(Scope.Thread)
+    public static class Solver {
+        @Param({"BISECT", "BRENT", "NEWTON", "SECANT"})
+        public String method;
+        Math.Solver solver;
+        @Setup public void setup() {
+            solver = TvmKernel.defaultSolver(Finance.TmvParams.r).method(Math.Method.valueOf(method));
+        }
+    }
+
+    @Benchmark public double iterateSolve(Problem p) {
+        return Math.iterateSolve(x->TvmKernel.fv(1000, x, .02, p.n, 200, 12, false), p.target, 0, .01, .00001);
+    }
+    @Benchmark public double solver(Problem p, Solver s) {
+        return s.solver.solve(x->TvmKernel.fv(1000, x, .02, p.n, 200, 12, false), p.target, 0).getX();
+    }
+}
@@ -0,0 +1,55 @@
+package plock.math;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** TvmBatch's fv and pv loops next to the same rows through TvmKernel one at a time.  On Java 17 and up
+ *   with jdk.incubator.vector added (the jmh task does that), TvmBatch runs across vector lanes, see TvmVector.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=5, time=1)
+@Measurement(iterations=5, time=1)
+@Fork(1)
+public class TvmBatchBenchmark {
+    @Param({"1000", "100000"})
+    public int rows;
+
+    private double[] pv, fv, r, g, n, pmt, out;
+    private int[] comp;
+    private boolean[] due;
+    private TvmBatch fvBatch, pvBatch;
+
+    @Setup public void setup() {
+        Random random = new Random(1);
+        pv = new double[rows]; fv = new double[rows]; r = new double[rows]; g = new double[rows];
+        n = new double[rows]; pmt = new double[rows]; out = new double[rows];
+        comp = new int[rows];
+        due = new boolean[rows];
+        for (int i=0; i<rows; i++) {
+            pv[i] = random.nextDouble()*100000;
+            fv[i] = random.nextDouble()*1000000;
+            r[i] = random.nextDouble()*.1;
+            g[i] = random.nextDouble()*.03;
+            n[i] = 1+random.nextInt(360);
+            pmt[i] = random.nextDouble()*2000;
+            comp[i] = i%2 == 0 ? 12 : 1;
+            due[i] = i%5 == 0;
+        }
+        fvBatch = new TvmBatch(rows).pv(pv).r(r).g(g).n(n).pmt(pmt).comp(comp).due(due);
+        pvBatch = new TvmBatch(rows).fv(fv).r(r).g(g).n(n).pmt(pmt).comp(comp).due(due).solveFor(Finance.TmvParams.pv);
+    }
+
+    @Benchmark public double[] fvScalar() {
+        for (int i=0; i<rows; i++) {out[i] = TvmKernel.fv(pv[i], r[i], g[i], n[i], pmt[i], comp[i], due[i]);}
+        return out;
+    }
+    @Benchmark public double[] fvBatch() {return fvBatch.solve(out);}
+    @Benchmark public double[] pvScalar() {
+        for (int i=0; i<rows; i++) {out[i] = TvmKernel.solvePv(fv[i], r[i], g[i], n[i], pmt[i], comp[i], due[i]);}
+        return out;
+    }
+    @Benchmark public double[] pvBatch() {return pvBatch.solve(out);}
+}
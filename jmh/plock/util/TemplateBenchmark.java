@@ -0,0 +1,36 @@
+package plock.util;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/** render() compiles the generated source each time, so this is mostly the in memory compile */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations=3, time=2)
+@Measurement(iterations=5, time=2)
+@Fork(1)
+public class TemplateBenchmark {
+    /** how many expressions are in the template */
+    @Param({"1", "10", "100"})
+    public int expressions;
+
+    private Template template;
+    private Map<String,Object> bindings;
+
+    @Setup public void setup() throws Exception {
+        bindings = new HashMap<String,Object>();
+        bindings.put("greeting", "world");
+        bindings.put("two", 2);
+        StringBuilder source = new StringBuilder();
+        for (int i=0; i<expressions; i++) {
+            source.append("Hello {$greeting.substring($two)} number ").append(i).append('\n');
+        }
+        template = new Template().setSource(source.toString().toCharArray());
+    }
+
+    @Benchmark public String render() throws Exception {
+        return template.render(bindings);
+    }
+}
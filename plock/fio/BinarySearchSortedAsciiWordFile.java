@@ -3,9 +3,13 @@ package plock.fio;
 /** 
   * non-printable ascii and space are considered delimiters to printable ascii words,
   * empty strings are ignored, since it is ascii, no Byte Order Mark is checked.
-  * considering there is no buffering (except by OS), you don't want to use this with really
-  * long words (a hit or near hit may take a while to validate)
-  * Use less than 2GB files
+  * the file is read a 4KB block at a time (or mapped), so you don't want to use this with words
+  * much longer than a block (a hit or near hit may take a while to validate)
+  * positions are longs, so files over 2GB are fine, map() them to search in memory instead of
+  * reading a byte at a time, or open() them to share one file handle between threads, and index() them to
+  * narrow every search down to a block in memory before reading anything.
+  * Besides find(), findAll() looks up a batch at once, and startingWith() and range() list the words with a
+  * prefix or between two words.
   * everything is compared case-insensitive
   * version 0.9
   * Copyright (C) 2013  Chris Plock
@@ -25,154 +29,591 @@ package plock.fio;
   */
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
 
-public class BinarySearchSortedAsciiWordFile {
+public class BinarySearchSortedAsciiWordFile implements Closeable {
 	private final File file;
+	/** where the bytes come from, null to open the file on every find() */
+	private final Bytes bytes;
+	private volatile SparseIndex index;
 	private static boolean debug=false;
 	
 	public BinarySearchSortedAsciiWordFile(File f) {
+		this(f, null);
+	}
+	private BinarySearchSortedAsciiWordFile(File f, Bytes bytes) {
 		this.file = f;
+		this.bytes = bytes;
+	}
+	/** maps the file once (in 1GB segments, so it can be over 2GB) and searches the mapped bytes, so a find()
+	  * reads memory (the page cache) instead of making a system call for every byte it looks at.
+	  * The mapping is of the file as it is now, it shouldn't be truncated while mapped and anything appended
+	  * isn't seen until it is mapped again.
+	  */
+	public static BinarySearchSortedAsciiWordFile map(File f) throws IOException {
+		return new BinarySearchSortedAsciiWordFile(f, new MappedBytes(f));
+	}
+	/** keeps the file open and reads it with positional reads from one FileChannel, so any number of threads can
+	  * find() at once without a file handle each.  Every thread reads a block at a time into its own buffer, which
+	  * is reused from call to call but only trusted within one, so a file rewritten in place is seen by the next
+	  * call.  One that is replaced by a new file (moved over it) isn't, the channel is still of the old one.
+	  */
+	public static BinarySearchSortedAsciiWordFile open(File f) throws IOException {
+		return new BinarySearchSortedAsciiWordFile(f, new ChannelBytes(f.toPath()));
+	}
+	/** keeps the offset and first 8 bytes of every so many words in memory, so a find() narrows down to the
+	  * words between two of them before reading anything, and then reads just those (one read of a block when
+	  * open()ed or with a new file every time, nothing at all to read when mapped).  Only the words that start
+	  * with the same 8 bytes as the one looked for are read to narrow it down further.  Building it reads the whole
+	  * file once.  It is used as long as the file stays the same length, index() again after changing it.
+	  * @param every how many words between offsets, 64 words of 8 letters fit a 4KB block with room to spare
+	  */
+	public BinarySearchSortedAsciiWordFile index(int every) throws IOException {
+		index = SparseIndex.build(file, every);
+		return this;
+	}
+	/** same as index(every) but kept in a sidecar file, which is only rebuilt when the word file has changed
+	  * since it was written (or it was written with a different every)
+	  */
+	public BinarySearchSortedAsciiWordFile index(int every, File sidecar) throws IOException {
+		SparseIndex index = sidecar.exists() ? SparseIndex.read(sidecar) : null;
+		if (index == null || index.every != every || index.length != file.length() || index.lastModified != file.lastModified()) {
+			index = SparseIndex.build(file, every);
+			index.write(sidecar);
+		}
+		this.index = index;
+		return this;
+	}
+	/** closes the file if it was open()ed, otherwise there is nothing to close */
+	public void close() throws IOException {
+		if (bytes != null) {bytes.close();}
 	}
 	/** @return null if cannot read the file, else true if word was found */
 	public Boolean find(String word) {
-		if (!file.exists() || !file.canRead()) {
+		char[] chars = word.toLowerCase().toCharArray();
+		try {
+			if (bytes != null) {
+				return find(chars, bytes.forThread());
+			}
+			if (!file.exists() || !file.canRead()) {
+				return null;
+			}
+			try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+				return find(chars, new FileBytes(raf));
+			}
+		} catch (IOException e) {
 			return null;
 		}
+	}
+	private Boolean find(char[] chars, Bytes bytes) throws IOException {
+		long start = 0, end = bytes.length();
+		SparseIndex index = this.index;
+		if (index != null && index.length == end && chars.length > 0) {
+			long prefix = SparseIndex.prefix(chars);
+			int below = index.below(prefix), above = index.above(prefix);
+			// entries that start with the same 8 bytes as the word are told apart by reading theirs
+			while (above - below > 1) {
+				int mid = (below + above) >>> 1;
+				int compared = compare(chars, bytes, index.offsets[mid]);
+				if (compared == 0) {return true;}
+				if (compared < 0) {above = mid;} else {below = mid;}
+			}
+			if (below >= 0) {start = index.offsets[below];}
+			if (above < index.size) {end = index.offsets[above];}
+			bytes.load(start, end);
+		}
+		return search(chars, bytes, start, end);
+	}
+	/** looks up a batch of words (like every word of a document) in one pass through the file instead of a search
+	  * each.  The words are looked up in sorted order, and each search starts where the last one ended and gallops
+	  * ahead, probing twice as far each time until it passes the word, before searching between the last two
+	  * probes.  Words close together in the file cost about a read of the blocks between them, far apart ones a
+	  * search of the gap between them.
+	  * @return whether each word was found, in the order of words, null if cannot read the file
+	  */
+	public boolean[] findAll(Collection<String> words) {
+		String[] lower = new String[words.size()];
+		int i = 0;
+		for (String word : words) {lower[i++] = word.toLowerCase();}
+		String[] sorted = lower.clone();
+		Arrays.sort(sorted);
 		try {
-		    RandomAccessFile raf = new RandomAccessFile(file, "r");
-		    Boolean found = booleanSearch(word.toLowerCase().toCharArray(), raf, 0, (int)raf.length());
-		    raf.close();
-		    return found;
+			Set<String> found;
+			if (bytes != null) {
+				found = findAll(sorted, bytes.forThread());
+			} else if (!file.exists() || !file.canRead()) {
+				return null;
+			} else {
+				try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+					found = findAll(sorted, new FileBytes(raf));
+				}
+			}
+			if (found == null) {return null;}
+			boolean[] results = new boolean[lower.length];
+			for (i=0; i<lower.length; i++) {results[i] = found.contains(lower[i]);}
+			return results;
 		} catch (IOException e) {
 			return null;
 		}
 	}
+	/** @return the words that were found, null if the bytes ran out */
+	private static Set<String> findAll(String[] sorted, Bytes bytes) throws IOException {
+		Set<String> found = new HashSet<String>();
+		long pos = 0, end = bytes.length();
+		for (int i=0; i<sorted.length; i++) {
+			if (sorted[i].isEmpty() || i > 0 && sorted[i].equals(sorted[i-1])) {continue;}
+			char[] chars = sorted[i].toCharArray();
+			long low = pos, high = end;
+			for (long step = 64; low < end; step *= 2) {
+				long probe = nextWord(bytes, Math.min(low + step, end), end);
+				if (probe == -1) {return null;} // someone truncated underneath us!
+				if (probe == end || compare(chars, bytes, probe) <= 0) {
+					high = probe;
+					break;
+				}
+				low = probe+1;
+			}
+			bytes.load(low, high);
+			pos = lowerBound(chars, bytes, low, high);
+			if (pos == -1) {return null;}
+			if (pos < end && compare(chars, bytes, pos) == 0) {found.add(sorted[i]);}
+		}
+		return found;
+	}
+	/** the words that start with prefix (ignoring case), like completions of a partial word, up to limit of them.
+	  * they come back as a list rather than an iterator so that nothing is left open (or reading from an open()
+	  * search that got closed) when a caller stops part way, limit is what keeps the list small
+	  * @return the words in the order (and case) they are in the file, null if cannot read the file
+	  */
+	public List<String> startingWith(String prefix, int limit) {
+		return scan(prefix.toLowerCase().toCharArray(), true, null, limit);
+	}
+	/** the words from from (inclusive) up to to (exclusive, null for the rest of the file), ignoring case, up to
+	  * limit of them, as a list for the same reason as startingWith()
+	  * @return the words in the order (and case) they are in the file, null if cannot read the file
+	  */
+	public List<String> range(String from, String to, int limit) {
+		return scan(from.toLowerCase().toCharArray(), false, to == null ? null : to.toLowerCase().toCharArray(), limit);
+	}
+	/** finds where the first word is with the same search as find(), then reads forward from there a block
+	  * at a time
+	  */
+	private List<String> scan(char[] from, boolean prefix, char[] to, int limit) {
+		if (limit < 0) {throw new IllegalArgumentException("limit must be >= 0");}
+		try {
+			if (bytes != null) {
+				return scan(from, prefix, to, limit, bytes.forThread());
+			}
+			if (!file.exists() || !file.canRead()) {
+				return null;
+			}
+			try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+				return scan(from, prefix, to, limit, new FileBytes(raf));
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	private List<String> scan(char[] from, boolean prefix, char[] to, int limit, Bytes bytes) throws IOException {
+		List<String> words = new ArrayList<String>();
+		long end = bytes.length(), pos = lowerBound(from, bytes, end);
+		while (pos != -1 && pos < end && words.size() < limit) {
+			if (prefix ? !startsWith(from, bytes, pos) : to != null && compare(to, bytes, pos) <= 0) {break;}
+			String word = word(bytes, pos);
+			words.add(word);
+			pos = nextWord(bytes, pos + word.length(), end);
+		}
+		return pos == -1 ? null : words; // someone truncated underneath us!
+	}
+	/** lowerBound() of the whole file, narrowed down by the index like find() when there is one */
+	private long lowerBound(char[] chars, Bytes bytes, long end) throws IOException {
+		long start = 0;
+		SparseIndex index = this.index;
+		if (index != null && index.length == end) {
+			long prefix = SparseIndex.prefix(chars);
+			int below = index.below(prefix), above = index.above(prefix);
+			while (above - below > 1) {
+				int mid = (below + above) >>> 1;
+				if (compare(chars, bytes, index.offsets[mid]) <= 0) {above = mid;} else {below = mid;}
+			}
+			if (below >= 0) {start = index.offsets[below];}
+			if (above < index.size) {end = index.offsets[above];}
+			bytes.load(start, end);
+		}
+		return lowerBound(chars, bytes, start, end);
+	}
 	/** end is exclusive */
-	public Boolean booleanSearch(final char[] chars, final RandomAccessFile raf, int start, int end) throws IOException {
-		// start==end==0 for example is empty since end is exclusive
-		// could be negative start is the last letter processed of the last word, which can extend beyond the end
-		if (end<=start) {
-			return false;
+	public Boolean booleanSearch(final char[] chars, final RandomAccessFile raf, long start, long end) throws IOException {
+		return search(chars, new FileBytes(raf), start, end);
+	}
+	/** the search itself, over the words that start in [start, end), wherever the bytes come from
+	  * @return null if the bytes ran out before end, like when someone truncated the file underneath us
+	  */
+	static Boolean search(final char[] chars, final Bytes bytes, long start, long end) throws IOException {
+		if (chars.length == 0) {return false;} // empty strings are ignored
+		// mid is usually in the middle of a word, so the word compared is the first one that starts at or after
+		//   mid, if there isn't one before end then it can only be on the left.  Left is [start,mid), and right
+		//   starts just past the compared word's first byte, the rest of it is skipped the same way.
+		//   A word that starts before end can still extend past it, so comparing reads past end (up to the end of
+		//   the file, which counts as a delimiter)
+		while (start < end) {
+			long mid = start + (end-start)/2;
+			long pos = nextWord(bytes, mid, end);
+			if (pos == -1) {return null;} // someone truncated underneath us!
+			if (pos == end) {
+				end = mid;
+				continue;
+			}
+			int compared = compare(chars, bytes, pos);
+			if (compared == 0) {return true;}
+			if (debug) {System.out.println((compared < 0 ? "<---      " : "     ---> ")+word(bytes, pos));}
+			if (compared < 0) {
+				end = mid;
+			} else {
+				start = pos+1;
+			}
 		}
-
-		int mid = (start+end)/2;
-
-		if (debug) {
-			if (end-start<80) {
-				raf.seek(start);
-				byte[] buff = new byte[end-start];
-				int midBuff = buff.length/2;
-				raf.readFully(buff);
-				String before = new String(buff, 0, midBuff, "UTF-8").replaceAll("\n", " ");
-				String after = new String(buff, midBuff+1,buff.length-midBuff-1).replaceAll("\n", " ");
-				char c = (char)buff[midBuff];
-				if (c == '\n') {c=' ';}
-				System.out.println("scanning ["+before+'|'+c+'|'+after+']'+raf.readLine());
-			}
-		}
-				
-		// consider [0] s=0,e=1,mid=0        [0,1] s=0,e=2,mid=0         [0,1,2] s=0,e=3,mid=1
-		// eval the mid value, left is [s,mid), right is [mid+1,end)
-		//      eval 0, []  []                  eval 0, []  [1]          eval 1, [0] [2]
-
-		// we generally will hit in the middle of a word,
-		//   so ignore the current word as our child left range will have the first letter of the word,
-		//   or, we are in the middle of a set of delimiters
-		//   and therefore we scan ahead to the beginning of the next word by looking for the last consecutive delimiter
-		// the only gotcha is when we are length of 1 and the left will be empty and we are at the start of a word,
-		//   so we first check if we have an immediate match and if not continue to gobble of the current word/word fragment,
-		//   if we do have a match, we have to look backwards 1 byte to see if we are at the beginning of the file or have a delimiter
-		//   just in case our word was a suffix 
-		
-		raf.seek(mid);
-
-		// check immediately for a match, this may go past end
-		int b = raf.read();
-		int wordPos = 0; // index into the search word
-		int filePos = mid+1; // this will help us track against 'end'
-		while (b != -1 && wordPos<chars.length && chars[wordPos] == Character.toLowerCase(b)) {
-		  b = raf.read();
-		  wordPos++;
-		}
-		filePos += wordPos;
-		if (wordPos == chars.length) { // check if we match up the entire requested word
-			// we need to make sure we had the start of a word, check for beginning of file else start-1 for delimiter
-			if (start==0) {return true;}
-			raf.seek(mid-1);
-			b = raf.read();
-			if (b==-1) {return null;} // someone truncated underneath us!
-			if (b<=' ' || b>'~') {
-				return true; // we found delimiter before matching word, woot!
-			}
-			raf.seek(filePos); // return us to where we were since no match
+		return false;
+	}
+	/** the same search, for the first word that starts in [start, end) and isn't less than chars
+	  * @return where that word starts, end if there isn't one, -1 if the bytes ran out before end
+	  */
+	static long lowerBound(final char[] chars, final Bytes bytes, long start, long end) throws IOException {
+		long bound = end;
+		while (start < end) {
+			long mid = start + (end-start)/2;
+			long pos = nextWord(bytes, mid, end);
+			if (pos == -1) {return -1;}
+			if (pos < end && compare(chars, bytes, pos) > 0) {
+				start = pos+1;
+			} else {
+				if (pos < end) {bound = pos;}
+				end = mid;
+			}
 		}
-
-		// skip rest of the current non-matching word, but don't bother going past end
-		while(filePos < end && b>' ' && b<='~') {
-			// this will break on first terminal it sees read into 'b'
-		    // this also breaks out on EOF or end (EOF shouldn't need to be checked, but just in case)
-			b = raf.read();
-			filePos++;
+		return bound;
+	}
+	/** @return the first word that starts in [pos, end), end if none does, -1 if the bytes end before end */
+	static long nextWord(Bytes bytes, long pos, long end) throws IOException {
+		if (pos > 0 && isWord(bytes.get(pos-1))) {
+			// in a word that started before pos, skip the rest of it
+			while (pos < end && isWord(bytes.get(pos))) {pos++;}
 		}
-
-		if (b == -1) {return null;} // someone truncated underneath us!
-		if (filePos==end) {
-		    // we reached end of file or range before next word so simply process left
-			return booleanSearch(chars, raf, start, mid);
+		for (; pos < end; pos++) {
+			int b = bytes.get(pos);
+			if (b == -1) {return -1;}
+			if (isWord(b)) {return pos;}
 		}
-
-		// now skip delimiters to get the first character of the word for comparing, don't need to go past end
-		while(filePos < end && (b<=' ' || b>'~')) {
-			b = raf.read();
-			filePos++;
+		return end;
+	}
+	/** compares chars to the word starting at pos like String.compareTo(), ignoring case */
+	static int compare(char[] chars, Bytes bytes, long pos) throws IOException {
+		for (int i=0; ; i++) {
+			int b = bytes.get(pos+i);
+			if (i == chars.length) {return isWord(b) ? -1 : 0;}
+			if (!isWord(b)) {return 1;}
+			int c = Character.toLowerCase(b);
+			if (chars[i] != c) {return chars[i] < c ? -1 : 1;}
 		}
-		if (b == -1) {return null;} // someone truncated underneath us!
-		if (filePos == end && (b<=' ' || b>'~')) { // we reached end of range before next word so process left
-			return booleanSearch(chars, raf, start, mid);
+	}
+	/** @return true if the word starting at pos starts with chars, ignoring case */
+	static boolean startsWith(char[] chars, Bytes bytes, long pos) throws IOException {
+		for (int i=0; i<chars.length; i++) {
+			int b = bytes.get(pos+i);
+			if (!isWord(b) || Character.toLowerCase(b) != chars[i]) {return false;}
 		}
+		return true;
+	}
+	static boolean isWord(int b) {return b > ' ' && b <= '~';}
+	private static String word(Bytes bytes, long pos) throws IOException {
+		StringBuilder word = new StringBuilder();
+		for (int b; isWord(b = bytes.get(pos)); pos++) {word.append((char)b);}
+		return word.toString();
+	}
 
-		// compare byte to byte until we hit EOF, a mismatch, or end of word
-		wordPos = 0;
-		while (b>=0 && wordPos<chars.length && chars[wordPos] == Character.toLowerCase(b)) {
-		  b = raf.read();
-		  wordPos++;
-		  filePos++;
+	/** the bytes of the file by position, however they get read */
+	interface Bytes extends Closeable {
+		/** @return the byte at pos, or -1 at or past the end of the file */
+		int get(long pos) throws IOException;
+		long length() throws IOException;
+		/** @return the bytes to use from the current thread, for when they can't be shared */
+		default Bytes forThread() {return this;}
+		/** a hint that the next gets are mostly in [from, to), to read it all at once if it is small enough */
+		default void load(long from, long to) throws IOException {}
+		default void close() throws IOException {}
+	}
+	/** the whole file mapped read only, a segment per GB since a buffer is indexed by int */
+	private static final class MappedBytes implements Bytes {
+		private static final int SEGMENT_BITS = 30;
+		private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+		private final MappedByteBuffer[] segments;
+		private final long length;
+		MappedBytes(File f) throws IOException {
+			try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+				length = channel.size();
+				segments = new MappedByteBuffer[(int)((length + SEGMENT_MASK) >>> SEGMENT_BITS)];
+				for (int i=0; i<segments.length; i++) {
+					long from = (long)i << SEGMENT_BITS;
+					segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, from, Math.min(SEGMENT_MASK+1, length-from));
+				}
+			}
 		}
-
-		if (wordPos != chars.length) {
-			if (b==-1) {return null;} // someone truncated underneath us!
-			if (filePos == end) {
-			    // we hit end before finishing word so word would come after which means it is not on the right, look left
-				return booleanSearch(chars, raf, start, mid);
-			}
-			// we didn't find a match, figure out if we should recurse on left or right
-			if (chars[wordPos] < Character.toLowerCase(b)) { // current char is less than what we read, do left
-			    if (debug) {System.out.println("<---      "+new String(chars, 0, wordPos)+'['+(char)b+']'+raf.readLine());}
-				return booleanSearch(chars, raf, start, mid);
-			} else { // well, do right!
-				int rightStart = (int)raf.getFilePointer();
-			    if (debug) {System.out.println("     ---> "+new String(chars, 0, wordPos)+'['+(char)b+']'+raf.readLine());}
-				// we can throw away the current word already, so start here for the right side
-				return booleanSearch(chars, raf, rightStart, end);
-			}
-		}
-		if (wordPos == chars.length && (b == -1 || b <= ' ' || b > '~')) {
-			// we found EOF or a delimiter as the next character, we have a match!
-			return true;
-		}
-		// next byte was a character instead of a delimiter, so we're close but we need to
-		// look prior to this value only
-		return booleanSearch(chars, raf, start, mid);
+		public int get(long pos) {
+			if (pos < 0 || pos >= length) {return -1;}
+			return segments[(int)(pos >>> SEGMENT_BITS)].get((int)(pos & SEGMENT_MASK)) & 0xff;
+		}
+		public long length() {return length;}
+	}
+	/** one channel for every thread, which reads into its own BlockBuffer */
+	private static final class ChannelBytes implements Bytes {
+		private final Path path;
+		private volatile FileChannel channel;
+		private volatile boolean closed;
+		/** the buffers don't refer back to this, so once this is unreachable its ThreadLocal is, and the buffers
+		  *   are dropped from every thread's map, rather than living as long as the (pooled) threads do */
+		private final ThreadLocal<BlockBuffer> buffers = ThreadLocal.withInitial(() -> new BlockBuffer(ByteBuffer.allocateDirect(Block.SIZE)));
+		ChannelBytes(Path path) throws IOException {
+			this.path = path;
+			this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		}
+		/** an interrupt during a read closes the channel for every thread, so it is opened again */
+		FileChannel channel() throws IOException {
+			FileChannel channel = this.channel;
+			if (channel.isOpen()) {return channel;}
+			synchronized (this) {
+				if (closed) {throw new ClosedChannelException();}
+				if (!this.channel.isOpen()) {this.channel = FileChannel.open(path, StandardOpenOption.READ);}
+				return this.channel;
+			}
+		}
+		/** @return true to try again after the channel was closed by another thread's interrupt, the interrupted
+		  *   thread itself gives up */
+		boolean retry(int retries) {return !closed && !Thread.currentThread().isInterrupted() && retries < 3;}
+		public int get(long pos) throws IOException {return forThread().get(pos);}
+		public long length() throws IOException {
+			for (int retries = 0; ; retries++) {
+				try {
+					return channel().size();
+				} catch (ClosedChannelException e) {
+					if (!retry(retries)) {throw e;}
+				}
+			}
+		}
+		/** the thread's buffer, emptied since the file may have changed since its last call */
+		public Bytes forThread() {return new ThreadBlock(this, buffers.get().empty());}
+		public synchronized void close() throws IOException {
+			closed = true;
+			buffers.remove();
+			channel.close();
+		}
+	}
+	/** the bytes of the last block read and where in the file they are from */
+	private static final class BlockBuffer {
+		final ByteBuffer buffer;
+		long start = -1;
+		BlockBuffer(ByteBuffer buffer) {
+			this.buffer = buffer;
+			empty();
+		}
+		BlockBuffer empty() {
+			start = -1;
+			buffer.limit(0);
+			return this;
+		}
+	}
+	/** the last block read from a channel, read whole with a positional read at a multiple of its size */
+	private static abstract class Block implements Bytes {
+		static final int SIZE = 4096;
+		private final BlockBuffer block;
+		private final ByteBuffer buffer;
+		Block(BlockBuffer block) {
+			this.block = block;
+			this.buffer = block.buffer;
+		}
+		abstract FileChannel channel() throws IOException;
+		/** @return true to read again after the channel was closed underneath the read */
+		boolean retry(int retries) {return false;}
+		/** reads from, rather than its block, when that gets more of the range in one read */
+		public void load(long from, long to) throws IOException {
+			if (from >= block.start && to <= block.start + buffer.limit()) {return;}
+			if (to - from > SIZE) {return;}
+			read((from & -SIZE) + SIZE >= to ? from & -SIZE : from);
+		}
+		public int get(long pos) throws IOException {
+			long offset = pos - block.start;
+			if (offset < 0 || offset >= buffer.limit()) {
+				if (pos < 0) {return -1;}
+				read(pos & -SIZE);
+				offset = pos - block.start;
+				if (offset >= buffer.limit()) {return -1;}
+			}
+			return buffer.get((int)offset) & 0xff;
+		}
+		private void read(long from) throws IOException {
+			block.start = from;
+			buffer.clear();
+			try {
+				for (int retries = 0; buffer.hasRemaining(); ) {
+					try {
+						if (channel().read(buffer, from + buffer.position()) < 0) {break;}
+					} catch (ClosedChannelException e) {
+						if (!retry(retries++)) {throw e;}
+					}
+				}
+			} finally {
+				buffer.flip();
+			}
+		}
+	}
+	/** the blocks of a RandomAccessFile, for the searches of a single call */
+	private static final class FileBytes extends Block {
+		private final RandomAccessFile raf;
+		FileBytes(RandomAccessFile raf) {
+			super(new BlockBuffer(ByteBuffer.allocate(SIZE)));
+			this.raf = raf;
+		}
+		FileChannel channel() {return raf.getChannel();}
+		public long length() throws IOException {return raf.length();}
+	}
+	/** the shared channel read into a thread's own BlockBuffer, for the searches of a single call */
+	private static final class ThreadBlock extends Block {
+		private final ChannelBytes bytes;
+		ThreadBlock(ChannelBytes bytes, BlockBuffer block) {
+			super(block);
+			this.bytes = bytes;
+		}
+		FileChannel channel() throws IOException {return bytes.channel();}
+		boolean retry(int retries) {return bytes.retry(retries);}
+		public long length() throws IOException {return bytes.length();}
 	}
 	
+	/** every so many words' offsets in the file and first bytes, in order */
+	static final class SparseIndex {
+		private static final int MAGIC = 0x57494458; // "WIDX"
+		final int every, size;
+		final long length, lastModified;
+		final long[] offsets, prefixes;
+		SparseIndex(int every, long length, long lastModified, long[] offsets, long[] prefixes, int size) {
+			this.every = every; this.length = length; this.lastModified = lastModified;
+			this.offsets = offsets; this.prefixes = prefixes; this.size = size;
+		}
+		/** the first 8 bytes lowercased in a long, 0s after a shorter word, so longs compare like the words do */
+		static long prefix(char[] chars) {
+			long prefix = 0;
+			for (int i=0; i<8; i++) {
+				prefix = prefix << 8 | (i < chars.length ? Math.min(chars[i], 0xff) : 0);
+			}
+			return prefix;
+		}
+		/** @return the last entry with a prefix less than prefix, -1 if none is, the word can't be before it */
+		int below(long prefix) {
+			int low = 0, high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (Long.compareUnsigned(prefixes[mid], prefix) < 0) {low = mid+1;} else {high = mid;}
+			}
+			return low-1;
+		}
+		/** @return the first entry with a prefix more than prefix, size if none is, the word can't be after it */
+		int above(long prefix) {
+			int low = 0, high = size;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (Long.compareUnsigned(prefixes[mid], prefix) <= 0) {low = mid+1;} else {high = mid;}
+			}
+			return low;
+		}
+		/** reads through the file once, taking every so many word starts */
+		static SparseIndex build(File file, int every) throws IOException {
+			if (every < 1) {throw new IllegalArgumentException("every must be > 0");}
+			long lastModified = file.lastModified();
+			long[] offsets = new long[64], prefixes = new long[64];
+			int size = 0, words = 0, letters = 0;
+			long pos = 0, prefix = 0;
+			boolean inWord = false, indexed = false;
+			try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16)) {
+				for (int b = in.read(); ; b = in.read(), pos++) {
+					if (isWord(b)) {
+						if (!inWord && (indexed = words++ % every == 0)) {
+							if (size == offsets.length) {
+								offsets = Arrays.copyOf(offsets, size*2);
+								prefixes = Arrays.copyOf(prefixes, size*2);
+							}
+							offsets[size] = pos;
+							prefix = letters = 0;
+						}
+						inWord = true;
+						if (indexed && letters < 8) {
+							prefix = prefix << 8 | Character.toLowerCase(b);
+							letters++;
+						}
+					} else {
+						if (inWord && indexed) {prefixes[size++] = prefix << 8*(8-letters);}
+						inWord = false;
+						if (b == -1) {break;}
+					}
+				}
+			}
+			return new SparseIndex(every, pos, lastModified, offsets, prefixes, size);
+		}
+		static SparseIndex read(File sidecar) throws IOException {
+			try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar)))) {
+				if (in.readInt() != MAGIC) {return null;}
+				int every = in.readInt(), size = in.readInt();
+				long length = in.readLong(), lastModified = in.readLong();
+				long[] offsets = new long[size], prefixes = new long[size];
+				for (int i=0; i<size; i++) {
+					offsets[i] = in.readLong();
+					prefixes[i] = in.readLong();
+				}
+				return new SparseIndex(every, length, lastModified, offsets, prefixes, size);
+			} catch (EOFException e) {
+				return null;
+			}
+		}
+		/** writes a temporary file next to it and moves it into place, so a reader never sees half of it */
+		void write(File sidecar) throws IOException {
+			Path temp = Files.createTempFile(sidecar.getAbsoluteFile().toPath().getParent(), sidecar.getName(), ".tmp");
+			try {
+				try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+					out.writeInt(MAGIC);
+					out.writeInt(every);
+					out.writeInt(size);
+					out.writeLong(length);
+					out.writeLong(lastModified);
+					for (int i=0; i<size; i++) {
+						out.writeLong(offsets[i]);
+						out.writeLong(prefixes[i]);
+					}
+				}
+				Files.move(temp, sidecar.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} finally {
+				Files.deleteIfExists(temp);
+			}
+		}
+	}
+
 	public static void main(String[] args) throws IOException {
-	    if (args[0].equals("-v")) {debug=true;}
-		if (args.length < (debug?2:1)) {
-			System.out.println("Usage: java BinarySearchSortedAsciiWordFile [-v] <pathToFile> <searchWord ...>");
+		int arg = 0;
+		boolean mapped = false, open = false;
+		for (; arg<args.length && args[arg].startsWith("-"); arg++) {
+			if (args[arg].equals("-v")) {debug=true;}
+			if (args[arg].equals("-m")) {mapped=true;}
+			if (args[arg].equals("-o")) {open=true;}
+		}
+		if (args.length <= arg) {
+			System.out.println("Usage: java BinarySearchSortedAsciiWordFile [-v] [-m|-o] <pathToFile> <searchWord ...>");
+			System.out.println("  -m maps the file instead of reading it a byte at a time");
+			System.out.println("  -o keeps the file open and reads it a block at a time");
 		} else {
-			File wordFile = new File(args[debug?1:0]);
-			BinarySearchSortedAsciiWordFile search = new BinarySearchSortedAsciiWordFile(wordFile);
-			for (int i=(debug?2:1); i<args.length; i++) {
+			File wordFile = new File(args[arg]);
+			BinarySearchSortedAsciiWordFile search = mapped ? map(wordFile)
+				: open ? open(wordFile) : new BinarySearchSortedAsciiWordFile(wordFile);
+			for (int i=arg+1; i<args.length; i++) {
 				long start = System.currentTimeMillis();
 				String searchWord = args[i];
 				Boolean found = search.find(searchWord);
@@ -190,6 +631,7 @@ public class BinarySearchSortedAsciiWordFile {
 				word = reader.readLine();
 			}
 			System.out.println("total in " + (System.currentTimeMillis()-totalStart)/1000 +"s");
+			search.close();
 		}
 	}
 }
\ No newline at end of file
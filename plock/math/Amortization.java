@@ -0,0 +1,195 @@
+package plock.math;
+
+import java.util.*;
+import plock.math.Finance.TmvParams;
+
+/** A schedule that can be changed a period at a time, for trying out extra payments (or a different rate) at
+ *   any period and seeing the balance and the payoff right away.  Every period takes the balance x to
+ *   (1+r)*x + payments + extra, a line, and lines compose into lines, so the periods are kept as the leaves of a
+ *   segment tree of composed lines.  Changing a period recomposes the lines above it, the balance at any
+ *   period composes the lines before it, and both take O(log n) instead of going through every period.
+ *   <p>
+ *   Each node also keeps the largest opening balance that gets paid off somewhere within its periods (and the
+ *   smallest, for a balance below 0 coming up to it), so the payoff period is found in O(log n) as well, and
+ *   is the first period that pays off even when the balance doesn't only go down.
+ *   Same conventions as Schedule, a loan is a positive pv with negative payments, or the other way around.
+ *   <pre>
+ *   Amortization loan = new Amortization(300000, .005, 0, 360, -1798.65, 1, false);
+ *   loan.setExtra(12, -10000);
+ *   int payoff = loan.getPayoffPeriod(); // 331, without the extra it is -1 (a dollar or two left)
+ *   </pre>
+ *   Not thread safe.
+ */
+public class Amortization {
+    private final double pv, g, pmt;
+    private final int periods, comp;
+    private final boolean due;
+    private final double[] rates, extras;
+    private double tolerance = .005;
+    /** the tree, 1 is the root and the periods are the leaves from size, padded out with the identity */
+    private final int size;
+    private final double[] scale, shift, deposits, payoffBelow, payoffAbove;
+
+    public Amortization(double pv, double r, double g, int periods, double pmt, int comp, boolean due) {
+        if (comp<=0) {throw new IllegalArgumentException("must be > 0");}
+        if (periods<0) {throw new IllegalArgumentException("periods must be >= 0");}
+        checkRate(r);
+        this.pv = pv; this.g = g; this.pmt = pmt; this.periods = periods; this.comp = comp; this.due = due;
+        this.rates = new double[periods];
+        this.extras = new double[periods];
+        Arrays.fill(rates, r);
+        int size = 1;
+        while (size < periods) {size *= 2;}
+        this.size = size;
+        scale = new double[2*size];
+        shift = new double[2*size];
+        deposits = new double[2*size];
+        payoffBelow = new double[2*size];
+        payoffAbove = new double[2*size];
+        build();
+    }
+    /** takes the current values of the finance, including whatever it is solving for */
+    public static Amortization of(Finance f) {
+        return new Amortization(f.getDouble(TmvParams.pv), f.getDouble(TmvParams.r), f.getDouble(TmvParams.g),
+            f.getDouble(TmvParams.n).intValue(), f.getDouble(TmvParams.pmt), ((Number)f.get(TmvParams.comp)).intValue(),
+            (Boolean)f.get(TmvParams.due));
+    }
+
+    /** how close to 0 the balance has to get to count as paid off, half a cent unless set, takes O(n) */
+    public Amortization tolerance(double tolerance) {
+        if (!(tolerance >= 0)) {throw new IllegalArgumentException("tolerance must be >= 0");}
+        this.tolerance = tolerance;
+        build();
+        return this;
+    }
+    public double getTolerance() {return tolerance;}
+
+    /** an extra payment at the end of the period, with the same sign as pmt to pay down a loan, 0 to take it out
+     * @param period from 1 to getPeriods()
+     */
+    public Amortization setExtra(int period, double amount) {
+        extras[index(period)] = amount;
+        update(period-1);
+        return this;
+    }
+    public double getExtra(int period) {return extras[index(period)];}
+    /** the rate for a single period, like a rate reset, the payment stays the same */
+    public Amortization setRate(int period, double r) {
+        checkRate(r);
+        rates[index(period)] = r;
+        update(period-1);
+        return this;
+    }
+    public double getRate(int period) {return rates[index(period)];}
+
+    public int getPeriods() {return periods;}
+    /** @return the balance before the first period */
+    public double getOpeningBalance() {return due ? pv+pmt : pv;}
+    /** @return the balance at the end of the given period, 0 is the opening balance */
+    public double balanceAt(int period) {
+        if (period < 0 || period > periods) {throw new IndexOutOfBoundsException(period+" of "+periods);}
+        double x = getOpeningBalance();
+        int node = 1, width = size, count = period;
+        while (count > 0) {
+            if (count == width) {return scale[node]*x + shift[node];}
+            width /= 2;
+            int left = 2*node;
+            if (count >= width) {
+                x = scale[left]*x + shift[left];
+                count -= width;
+                node = left+1;
+            } else {
+                node = left;
+            }
+        }
+        return x;
+    }
+    public double getFinalBalance() {return balanceAt(periods);}
+    /** @return the payments and extras made through the end of the given period */
+    public double depositsTo(int period) {
+        if (period < 0 || period > periods) {throw new IndexOutOfBoundsException(period+" of "+periods);}
+        double sum = 0;
+        for (int lo=size, hi=size+period; lo<hi; lo/=2, hi/=2) {
+            if ((lo & 1) == 1) {sum += deposits[lo++];}
+            if ((hi & 1) == 1) {sum += deposits[--hi];}
+        }
+        return sum;
+    }
+    /** @return the interest through the end of the given period */
+    public double interestTo(int period) {return balanceAt(period) - getOpeningBalance() - depositsTo(period);}
+
+    /** @return the first period that ends with the balance within the tolerance of 0 (or past it), 0 if it
+     *    already starts there, -1 if it is never paid off
+     */
+    public int getPayoffPeriod() {
+        double x = getOpeningBalance();
+        if (java.lang.Math.abs(x) <= tolerance) {return 0;}
+        boolean positive = x > 0;
+        if (positive ? !(x <= payoffBelow[1]) : !(x >= payoffAbove[1])) {return -1;}
+        int node = 1;
+        while (node < size) {
+            int left = 2*node;
+            if (positive ? x <= payoffBelow[left] : x >= payoffAbove[left]) {
+                node = left;
+            } else {
+                x = scale[left]*x + shift[left];
+                node = left+1;
+            }
+        }
+        return node-size+1;
+    }
+    /** @return the balance at the end of every period, the whole schedule in O(n) */
+    public double[] balances() {
+        double[] balances = new double[periods+1];
+        balances[0] = getOpeningBalance();
+        for (int i=0; i<periods; i++) {
+            int leaf = size+i;
+            balances[i+1] = scale[leaf]*balances[i] + shift[leaf];
+        }
+        return balances;
+    }
+
+    private void build() {
+        for (int i=0; i<size; i++) {leaf(i);}
+        for (int node=size-1; node>0; node--) {combine(node);}
+    }
+    private void update(int i) {
+        leaf(i);
+        for (int node=(size+i)/2; node>0; node/=2) {combine(node);}
+    }
+    /** period i+1 as a line, padding past the last period is the identity and never pays off */
+    private void leaf(int i) {
+        int leaf = size+i;
+        if (i >= periods) {
+            scale[leaf] = 1;
+            shift[leaf] = deposits[leaf] = 0;
+            payoffBelow[leaf] = Double.NEGATIVE_INFINITY;
+            payoffAbove[leaf] = Double.POSITIVE_INFINITY;
+            return;
+        }
+        double r = rates[i], payment = pmt*java.lang.Math.pow(1+g, i);
+        scale[leaf] = 1+r;
+        shift[leaf] = TvmKernel.compPmt(payment, r, comp) + extras[i];
+        deposits[leaf] = payment*comp + extras[i];
+        // (1+r)*x + shift is within the tolerance below (or above) for x up to (or from) here
+        payoffBelow[leaf] = (tolerance - shift[leaf])/scale[leaf];
+        payoffAbove[leaf] = (-tolerance - shift[leaf])/scale[leaf];
+    }
+    /** the left child's periods and then the right's, each line is increasing since every rate is above -1 */
+    private void combine(int node) {
+        int left = 2*node, right = left+1;
+        scale[node] = scale[right]*scale[left];
+        shift[node] = scale[right]*shift[left] + shift[right];
+        deposits[node] = deposits[left] + deposits[right];
+        // paid off within the left, or else the left has to take x to where the right pays off
+        payoffBelow[node] = java.lang.Math.max(payoffBelow[left], (payoffBelow[right] - shift[left])/scale[left]);
+        payoffAbove[node] = java.lang.Math.min(payoffAbove[left], (payoffAbove[right] - shift[left])/scale[left]);
+    }
+    private int index(int period) {
+        if (period < 1 || period > periods) {throw new IndexOutOfBoundsException(period+" of "+periods);}
+        return period-1;
+    }
+    private static void checkRate(double r) {
+        if (!(r > -1)) {throw new IllegalArgumentException("rate must be > -1");}
+    }
+}
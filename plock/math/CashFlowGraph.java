@@ -0,0 +1,395 @@
+package plock.math;
+
+import java.util.*;
+import javafx.beans.property.*;
+import javafx.beans.value.*;
+import plock.math.Finance.TmvParams;
+
+/** Accounts (each a Finance) linked so that a value of one account is taken from a value of another, like
+ *   the pv of a retirement account coming from the fv of a savings account.  Instead of binding the
+ *   properties to each other, which turns a single edit into a synchronous cascade through every binding,
+ *   the accounts are kept in topological order and an edit only marks the account dirty.  recompute() then
+ *   goes through the dirty accounts in order, each pulls its linked values in a single Finance.update(), and
+ *   an account downstream is only marked dirty when a value it takes actually changed.
+ *   A link that would make a cycle is refused with an IllegalArgumentException.  The order is maintained
+ *   incrementally (Pearce and Kelly), so adding a link only reorders the accounts between its two ends.
+ *   <pre>
+ *   CashFlowGraph graph = new CashFlowGraph().add("savings", savings).add("retirement", retirement)
+ *       .link("savings", TmvParams.fv, "retirement", TmvParams.pv);
+ *   savings.pmt(500); // retirement's pv follows on the next recompute(), right away with autoRecompute
+ *   </pre>
+ *   Not thread safe, like the Finances it holds it is meant to be used from a single (usually the FX) thread.
+ */
+public class CashFlowGraph {
+    private final Map<String,Node> nodes = new LinkedHashMap<String,Node>();
+    /** order.get(node.ord) == node, and every link goes from a lower ord to a higher one */
+    private final List<Node> order = new ArrayList<Node>();
+    private final PriorityQueue<Node> dirty = new PriorityQueue<Node>((a,b)->Integer.compare(a.ord, b.ord));
+    private boolean autoRecompute = true, propagating;
+    private long recomputes;
+
+    /** when true (the default), every edit to an account recomputes whatever is downstream of it right away */
+    public CashFlowGraph autoRecompute(boolean autoRecompute) {this.autoRecompute = autoRecompute; return this;}
+    public boolean isAutoRecompute() {return autoRecompute;}
+
+    public CashFlowGraph add(String name, Finance finance) {
+        if (nodes.containsKey(name)) {throw new IllegalArgumentException("already have an account named "+name);}
+        Node node = new Node(name, finance, order.size());
+        nodes.put(name, node);
+        order.add(node);
+        return this;
+    }
+    /** removes the account along with every link to and from it */
+    public CashFlowGraph remove(String name) {
+        Node node = node(name);
+        for (Link link : new ArrayList<Link>(node.in)) {unlink(link);}
+        for (Link link : new ArrayList<Link>(node.out)) {unlink(link);}
+        node.detach();
+        nodes.remove(name);
+        order.remove(node.ord);
+        for (int i=node.ord; i<order.size(); i++) {order.get(i).ord = i;}
+        dirty.remove(node);
+        return this;
+    }
+    public boolean contains(String name) {return nodes.containsKey(name);}
+    public Finance get(String name) {return node(name).finance;}
+    public Map<String,Finance> getFinances() {
+        Map<String,Finance> finances = new LinkedHashMap<String,Finance>();
+        nodes.forEach((name, node) -> finances.put(name, node.finance));
+        return finances;
+    }
+    /** @return the account names, every account comes after all the accounts it takes values from */
+    public List<String> getOrder() {
+        List<String> names = new ArrayList<String>(order.size());
+        for (Node node : order) {names.add(node.name);}
+        return names;
+    }
+
+    /** toParam of account "to" will take the value of fromParam of account "from"
+     * @throws IllegalArgumentException if toParam is already linked, is being solved for, or the link makes a cycle
+     */
+    public CashFlowGraph link(String from, TmvParams fromParam, String to, TmvParams toParam) {
+        Node source = node(from), target = node(to);
+        checkDouble(fromParam);
+        checkDouble(toParam);
+        if (source == target) {throw new IllegalArgumentException("cannot link "+from+" to itself");}
+        for (Link link : target.in) {
+            if (link.toParam == toParam) {throw new IllegalArgumentException(toParam+" of "+to+" is already linked to "+link.from.name);}
+        }
+        if (target.finance.getSolveFor() == toParam) {throw new IllegalArgumentException(to+" is solving for "+toParam);}
+        if (source.ord > target.ord) {reorder(source, target);}
+        Link link = new Link(source, fromParam, target, toParam);
+        source.out.add(link);
+        target.in.add(link);
+        markDirty(target);
+        return this;
+    }
+    /** removes whatever link toParam of account "to" has, the value it has now is kept
+     * @return true if there was a link
+     */
+    public boolean unlink(String to, TmvParams toParam) {
+        for (Link link : node(to).in) {
+            if (link.toParam == toParam) {
+                unlink(link);
+                return true;
+            }
+        }
+        return false;
+    }
+    /** @return the name of the account that toParam of account "to" is linked to, null if it isn't */
+    public String getLink(String to, TmvParams toParam) {
+        for (Link link : node(to).in) {
+            if (link.toParam == toParam) {return link.from.name;}
+        }
+        return null;
+    }
+    private void unlink(Link link) {
+        link.from.out.remove(link);
+        link.to.in.remove(link);
+    }
+
+    /** brings every dirty account (and whatever changes downstream of them) up to date, in topological order
+     * @return how many accounts were recomputed
+     */
+    public int recompute() {
+        if (propagating) {return 0;}
+        propagating = true;
+        int count = 0;
+        try {
+            while (!dirty.isEmpty()) {
+                Node node = dirty.poll();
+                node.dirty = false;
+                node.pull();
+                count++;
+                for (Link link : node.out) {
+                    if (link.isActive() && Double.compare(link.from.value(link.fromParam), link.to.value(link.toParam)) != 0) {
+                        markDirty(link.to);
+                    }
+                }
+            }
+        } finally {
+            propagating = false;
+        }
+        recomputes += count;
+        return count;
+    }
+    /** @return how many accounts have been recomputed in total */
+    public long getRecomputeCount() {return recomputes;}
+
+    /** finds the value of param in account "from" that makes target in account "to" come out to value, like
+     *  "what pmt into savings makes retirement's fv a million".  The accounts in between are evaluated headless,
+     *  in topological order on copies of their numbers the way recompute() would, so nothing is set on the
+     *  accounts (or seen by the UI) while it searches.  Brackets out from the current value of param with the
+     *  default solver for param, Brent's method.
+     *  <pre>
+     *  Math.Solution s = graph.goalSeek("savings", TmvParams.pmt, "retirement", TmvParams.fv, 1000000);
+     *  graph.get("savings").pmt(s.getXOrThrow());
+     *  </pre>
+     * @throws IllegalArgumentException if param is linked or being solved for, or target doesn't depend on it
+     */
+    public Math.Solution goalSeek(String from, TmvParams param, String to, TmvParams target, double value) {
+        return goalSeek(TvmKernel.defaultSolver(param), from, param, to, target, value);
+    }
+    public Math.Solution goalSeek(Math.Solver solver, String from, TmvParams param, String to, TmvParams target,
+            double value) {
+        Seek seek = new Seek(node(from), param, node(to), target);
+        return solver.solve(seek::evaluate, value, seek.start());
+    }
+    /** same as goalSeek(), but only between low and high, and target has to be on either side of value at those */
+    public Math.Solution goalSeek(String from, TmvParams param, String to, TmvParams target, double value,
+            double low, double high) {
+        Seek seek = new Seek(node(from), param, node(to), target);
+        return TvmKernel.defaultSolver(param).solve(seek::evaluate, null, value, low, high);
+    }
+
+    private Node node(String name) {
+        Node node = nodes.get(name);
+        if (node == null) {throw new IllegalArgumentException("no account named "+name);}
+        return node;
+    }
+    private static void checkDouble(TmvParams p) {
+        switch (p) {
+            case pv: case fv: case r: case g: case n: case pmt: case comp_pmt: return;
+            default:
+        }
+        throw new IllegalArgumentException("cannot link "+p);
+    }
+    private void markDirty(Node node) {
+        if (!node.dirty) {
+            node.dirty = true;
+            dirty.add(node);
+        }
+        if (autoRecompute && !propagating) {recompute();}
+    }
+
+    /** source comes after target, so make room for the new link by moving target's descendants (with ord up
+     *  to source's) after source's ancestors (with ord down to target's), reusing the same set of ords
+     */
+    private void reorder(Node source, Node target) {
+        List<Node> forward = new ArrayList<Node>(), backward = new ArrayList<Node>();
+        Set<Node> seen = new HashSet<Node>();
+        Deque<Node> stack = new ArrayDeque<Node>();
+        stack.push(target);
+        seen.add(target);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            forward.add(node);
+            for (Link link : node.out) {
+                Node next = link.to;
+                if (next == source) {
+                    throw new IllegalArgumentException("linking "+source.name+" to "+target.name+" would make a cycle");
+                }
+                if (next.ord < source.ord && seen.add(next)) {stack.push(next);}
+            }
+        }
+        stack.push(source);
+        seen.add(source);
+        while (!stack.isEmpty()) {
+            Node node = stack.pop();
+            backward.add(node);
+            for (Link link : node.in) {
+                Node previous = link.from;
+                if (previous.ord > target.ord && seen.add(previous)) {stack.push(previous);}
+            }
+        }
+        Comparator<Node> byOrd = (a,b)->Integer.compare(a.ord, b.ord);
+        backward.sort(byOrd);
+        forward.sort(byOrd);
+        int[] ords = new int[backward.size()+forward.size()];
+        int i = 0;
+        for (Node node : backward) {ords[i++] = node.ord;}
+        for (Node node : forward) {ords[i++] = node.ord;}
+        Arrays.sort(ords);
+        i = 0;
+        for (Node node : backward) {place(node, ords[i++]);}
+        for (Node node : forward) {place(node, ords[i++]);}
+        // the heap is ordered on ord, so it has to be rebuilt with the new ords
+        List<Node> pending = new ArrayList<Node>(dirty);
+        dirty.clear();
+        dirty.addAll(pending);
+    }
+    private void place(Node node, int ord) {
+        node.ord = ord;
+        order.set(ord, node);
+    }
+
+    /** the accounts that are both downstream of the one being changed and upstream of the target, with their
+     *  numbers copied out, evaluate(x) puts x in and recomputes them in order on the copies
+     */
+    private final class Seek {
+        private final List<Node> nodes = new ArrayList<Node>();
+        private final Map<Node,Values> values = new HashMap<Node,Values>();
+        private final Values source;
+        private final TmvParams param, target;
+        private final Values result;
+
+        Seek(Node from, TmvParams param, Node to, TmvParams target) {
+            checkDouble(param);
+            checkDouble(target);
+            if (from.finance.getSolveFor() == param) {throw new IllegalArgumentException(from.name+" is solving for "+param);}
+            for (Link link : from.in) {
+                if (link.isActive() && link.toParam == param) {
+                    throw new IllegalArgumentException(param+" of "+from.name+" is linked to "+link.from.name);
+                }
+            }
+            // bring everything up to date first, the copies are taken from the accounts as they are
+            recompute();
+            Set<Node> downstream = new HashSet<Node>(), upstream = new HashSet<Node>();
+            reach(from, downstream, true);
+            reach(to, upstream, false);
+            if (!downstream.contains(to)) {throw new IllegalArgumentException(to.name+" doesn't depend on "+from.name);}
+            for (Node node : order) {
+                if (downstream.contains(node) && upstream.contains(node)) {nodes.add(node);}
+            }
+            for (Node node : nodes) {values.put(node, new Values(node.finance));}
+            this.param = param;
+            this.target = target;
+            this.source = values.get(from);
+            this.result = values.get(to);
+        }
+        double start() {return source.get(param);}
+        double evaluate(double x) {
+            for (Node node : nodes) {
+                Values v = values.get(node);
+                v.reset();
+                if (v == source) {
+                    v.set(param, x);
+                } else {
+                    for (Link link : node.in) {
+                        if (!link.isActive()) {continue;}
+                        Values upstream = values.get(link.from);
+                        v.set(link.toParam, upstream != null ? upstream.get(link.fromParam) : link.from.value(link.fromParam));
+                    }
+                }
+                v.solve();
+            }
+            return result.get(target);
+        }
+        /** follows the active links out of (or into) node */
+        private void reach(Node node, Set<Node> seen, boolean down) {
+            Deque<Node> stack = new ArrayDeque<Node>();
+            seen.add(node);
+            stack.push(node);
+            while (!stack.isEmpty()) {
+                Node at = stack.pop();
+                for (Link link : down ? at.out : at.in) {
+                    Node next = down ? link.to : link.from;
+                    if (link.isActive() && seen.add(next)) {stack.push(next);}
+                }
+            }
+        }
+    }
+    /** the numbers of one account, with Finance's rules for pmt and comp_pmt and solved with TvmKernel */
+    private static final class Values {
+        private static final TmvParams[] DOUBLES = {TmvParams.pv, TmvParams.fv, TmvParams.r, TmvParams.g,
+            TmvParams.n, TmvParams.pmt, TmvParams.comp_pmt};
+        private final double[] initial = new double[TmvParams.values().length], current = initial.clone();
+        private final int comp;
+        private final boolean due;
+        private final TmvParams solveFor;
+        private final Math.Solver solver;
+        /** where the last solve ended up, the next one starts there */
+        private double guess;
+        Values(Finance f) {
+            for (TmvParams p : DOUBLES) {initial[p.ordinal()] = f.getDouble(p);}
+            comp = ((Number)f.get(TmvParams.comp)).intValue();
+            due = (Boolean)f.get(TmvParams.due);
+            solveFor = f.getSolveFor();
+            solver = f.getSolver(solveFor);
+            guess = initial[solveFor.ordinal()];
+        }
+        void reset() {System.arraycopy(initial, 0, current, 0, initial.length);}
+        double get(TmvParams p) {return current[p.ordinal()];}
+        /** setting comp_pmt sets pmt, like the binding between them in Finance */
+        void set(TmvParams p, double value) {
+            current[p.ordinal()] = value;
+            if (p == TmvParams.comp_pmt) {current[TmvParams.pmt.ordinal()] = TvmKernel.pmt(value, get(TmvParams.r), comp);}
+        }
+        void solve() {
+            double solution;
+            try {
+                solution = TvmKernel.solve(solver, Double.isFinite(guess) ? guess : 0, solveFor, get(TmvParams.pv),
+                    get(TmvParams.fv), get(TmvParams.r), get(TmvParams.g), get(TmvParams.n), get(TmvParams.pmt), comp, due);
+                guess = solution;
+            } catch (IllegalArgumentException e) {
+                solution = Double.NaN;
+            }
+            set(solveFor, solution);
+            // pmt is what Finance keeps, comp_pmt follows it
+            if (solveFor != TmvParams.comp_pmt) {
+                current[TmvParams.comp_pmt.ordinal()] = TvmKernel.compPmt(get(TmvParams.pmt), get(TmvParams.r), comp);
+            }
+        }
+    }
+
+    private static final class Link {
+        final Node from, to;
+        final TmvParams fromParam, toParam;
+        Link(Node from, TmvParams fromParam, Node to, TmvParams toParam) {
+            this.from = from; this.fromParam = fromParam; this.to = to; this.toParam = toParam;
+        }
+        /** a link into what the account is now solving for is skipped until it solves for something else */
+        boolean isActive() {return to.finance.getSolveFor() != toParam;}
+    }
+
+    private final class Node {
+        final String name;
+        final Finance finance;
+        final List<Link> in = new ArrayList<Link>(), out = new ArrayList<Link>();
+        int ord;
+        boolean dirty;
+        /** only inputs are listened to, listening for changes to the solution would solve on every edit */
+        private final ChangeListener<Object> edited = (obs, oldVal, newVal) -> {
+            if (!propagating) {markDirty(this);}
+        };
+        private final ChangeListener<TmvParams> solveForChanged = (obs, oldSolveFor, newSolveFor) -> {
+            param(newSolveFor).removeListener(edited);
+            param(oldSolveFor).addListener(edited);
+            if (!propagating) {markDirty(this);}
+        };
+        @SuppressWarnings("unchecked")
+        Node(String name, Finance finance, int ord) {
+            this.name = name; this.finance = finance; this.ord = ord;
+            for (TmvParams p : TmvParams.values()) {
+                if (p != finance.getSolveFor()) {param(p).addListener(edited);}
+            }
+            finance.solveForProperty().addListener(solveForChanged);
+        }
+        void detach() {
+            for (TmvParams p : TmvParams.values()) {param(p).removeListener(edited);}
+            finance.solveForProperty().removeListener(solveForChanged);
+        }
+        @SuppressWarnings("unchecked")
+        private Property<Object> param(TmvParams p) {return finance.getProperty(p);}
+        double value(TmvParams p) {return finance.getDouble(p);}
+        /** takes all the linked values in one update so the account solves once */
+        void pull() {
+            if (in.isEmpty()) {return;}
+            finance.update(f -> {
+                for (Link link : in) {
+                    if (link.isActive()) {f.set(link.toParam, link.from.value(link.fromParam));}
+                }
+            });
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package plock.math;
+
+import java.math.RoundingMode;
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
+import plock.math.Finance.TmvParams;
+
+/** Schedule in fixed point, for when the cents have to add up.  Money is a long count of minor units (cents,
+ *   or whatever the currency's smallest unit is) and only the rates stay double.  Every period the payment
+ *   and the interest are each rounded once to a whole minor unit with the given RoundingMode, so each row
+ *   reconciles exactly, start + deposits + interest == balance, and so do the totals.  With settleTo() the
+ *   last period's deposit is adjusted to land on the given balance, like the final payment of a loan that
+ *   pays it off to the cent.  Same conventions as Schedule otherwise.
+ *   <pre>
+ *   CentSchedule loan = new CentSchedule(30000000, .005, 0, 360, -179865, 1, false, RoundingMode.HALF_EVEN)
+ *       .settleTo(0);
+ *   CentSchedule.Cursor c = loan.cursor();
+ *   while (c.next()) { out.println(c.getPeriod()+","+c.getInterest()+","+c.getBalance()); }
+ *   </pre>
+ */
+public class CentSchedule implements Iterable<CentSchedule.Period> {
+    /** for the HALF_* modes, a fraction this close to half a minor unit is taken to be a tie, rates like .05
+     *  aren't exact in double so interest that is a tie on paper can come out a hair to either side of it.
+     *  The other modes go by the double as it is, like BigDecimal would.
+     */
+    private static final double TIE_TOLERANCE = 1e-9;
+    /** a few ulps as a fraction of x, cheaper than Math.ulp() */
+    private static final double RELATIVE_TOLERANCE = 1e-15;
+
+    private final long pv, pmt, settle;
+    private final double r, g;
+    private final int periods, comp;
+    private final boolean due, settled;
+    private final RoundingMode rounding;
+
+    public CentSchedule(long pv, double r, double g, int periods, long pmt, int comp, boolean due, RoundingMode rounding) {
+        this(pv, r, g, periods, pmt, comp, due, rounding, false, 0);
+    }
+    private CentSchedule(long pv, double r, double g, int periods, long pmt, int comp, boolean due, RoundingMode rounding,
+            boolean settled, long settle) {
+        if (comp<=0) {throw new IllegalArgumentException("must be > 0");}
+        if (periods<0) {throw new IllegalArgumentException("periods must be >= 0");}
+        if (rounding == null) {throw new IllegalArgumentException("need a rounding mode");}
+        this.pv = pv; this.r = r; this.g = g; this.periods = periods; this.pmt = pmt; this.comp = comp;
+        this.due = due; this.rounding = rounding; this.settled = settled; this.settle = settle;
+    }
+    /** takes the current values of the finance, pv and pmt are rounded to minor units of 10^-scale */
+    public static CentSchedule of(Finance f, int scale, RoundingMode rounding) {
+        double unit = java.lang.Math.pow(10, scale);
+        return new CentSchedule(round(f.getDouble(TmvParams.pv)*unit, rounding), f.getDouble(TmvParams.r),
+            f.getDouble(TmvParams.g), f.getDouble(TmvParams.n).intValue(), round(f.getDouble(TmvParams.pmt)*unit, rounding),
+            ((Number)f.get(TmvParams.comp)).intValue(), (Boolean)f.get(TmvParams.due), rounding);
+    }
+    /** @return this schedule with the last period's deposit adjusted so that it ends at exactly balance */
+    public CentSchedule settleTo(long balance) {
+        return new CentSchedule(pv, r, g, periods, pmt, comp, due, rounding, true, balance);
+    }
+
+    public int getPeriods() {return periods;}
+    public RoundingMode getRounding() {return rounding;}
+    /** @return the balance before the first period */
+    public long getOpeningBalance() {return due ? pv+pmt : pv;}
+    /** @return the balance after the last period, which takes a pass through the whole schedule */
+    public long getClosingBalance() {
+        Cursor c = cursor();
+        while (c.next()) {}
+        return c.getBalance();
+    }
+
+    /** a single mutable row that is advanced through the periods, nothing is allocated per period */
+    public Cursor cursor() {return new Cursor();}
+    /** rounding depends on every period before, so unlike Schedule this doesn't split */
+    public Spliterator<Period> spliterator() {
+        return new Spliterators.AbstractSpliterator<Period>(periods,
+                Spliterator.ORDERED|Spliterator.SIZED|Spliterator.NONNULL|Spliterator.IMMUTABLE) {
+            private final Cursor cursor = cursor();
+            @Override public boolean tryAdvance(Consumer<? super Period> action) {
+                if (!cursor.next()) {return false;}
+                action.accept(cursor.toPeriod());
+                return true;
+            }
+        };
+    }
+    public Iterator<Period> iterator() {return Spliterators.iterator(spliterator());}
+    public Stream<Period> stream() {return StreamSupport.stream(spliterator(), false);}
+
+    public class Cursor {
+        /** what a payment made "comp" times in the period grows to by the end of it, less the payments */
+        private final double paymentInterest = TvmKernel.compPmt(1, r, comp) - comp;
+        private int period;
+        /** the unrounded payment, so g doesn't compound the rounding */
+        private double growingPayment = pmt;
+        private long payment, startBalance, deposits, interest, balance = getOpeningBalance(), adjustment;
+        private long totalDeposits, totalInterest;
+        private Cursor() {}
+        /** @return false when there are no more periods */
+        public boolean next() {
+            if (period >= periods) {return false;}
+            period++;
+            startBalance = balance;
+            if (g != 0 || period == 1) {payment = round(growingPayment, rounding);}
+            deposits = payment*comp;
+            interest = round(startBalance*r + payment*paymentInterest, rounding);
+            balance = startBalance + deposits + interest;
+            adjustment = 0;
+            if (settled && period == periods) {
+                adjustment = settle - balance;
+                deposits += adjustment;
+                balance = settle;
+            }
+            totalDeposits += deposits;
+            totalInterest += interest;
+            growingPayment *= 1+g;
+            return true;
+        }
+        /** starts at 1 for the first period */
+        public int getPeriod() {return period;}
+        public long getStartBalance() {return startBalance;}
+        /** @return the payment made each of the "comp" times in the period */
+        public long getPayment() {return payment;}
+        /** @return all of the payments made during the period, including any adjustment */
+        public long getDeposits() {return deposits;}
+        /** @return interest on the starting balance and on the payments made during the period */
+        public long getInterest() {return interest;}
+        public long getBalance() {return balance;}
+        /** @return what settleTo() added to the last period's deposits, 0 before then */
+        public long getAdjustment() {return adjustment;}
+        /** @return the deposits so far, opening balance + total deposits + total interest == balance */
+        public long getTotalDeposits() {return totalDeposits;}
+        public long getTotalInterest() {return totalInterest;}
+        public Period toPeriod() {return new Period(period, startBalance, deposits, interest, balance);}
+    }
+
+    /** one row of the schedule */
+    public static final class Period {
+        private final int period;
+        private final long startBalance, deposits, interest, balance;
+        public Period(int period, long startBalance, long deposits, long interest, long balance) {
+            this.period = period; this.startBalance = startBalance; this.deposits = deposits;
+            this.interest = interest; this.balance = balance;
+        }
+        public int getPeriod() {return period;}
+        public long getStartBalance() {return startBalance;}
+        public long getDeposits() {return deposits;}
+        public long getInterest() {return interest;}
+        public long getBalance() {return balance;}
+        public String toString() {return "{period:"+period+",start:"+startBalance+",deposits:"+deposits
+            +",interest:"+interest+",balance:"+balance+"}";}
+    }
+
+    /** rounds to a whole number the way BigDecimal.setScale(0, mode) would, without making a BigDecimal,
+     *  except that the HALF_* modes treat anything within TIE_TOLERANCE of a half as a tie
+     * @throws ArithmeticException for UNNECESSARY when x isn't whole
+     */
+    public static long round(double x, RoundingMode mode) {
+        // start from the nearest whole number, the branches after that almost always go the same way
+        double nearest = java.lang.Math.rint(x), offset = x - nearest, distance = java.lang.Math.abs(offset);
+        long whole = (long)nearest;
+        if (distance == 0) {return whole;}
+        long down = offset < 0 ? whole-1 : whole, up = down+1;
+        boolean negative = x < 0;
+        switch (mode) {
+            case FLOOR: return down;
+            case CEILING: return up;
+            case DOWN: return negative ? up : down;
+            case UP: return negative ? down : up;
+            case UNNECESSARY: throw new ArithmeticException("rounding necessary for "+x);
+            default:
+        }
+        double tolerance = java.lang.Math.max(TIE_TOLERANCE, java.lang.Math.abs(x)*RELATIVE_TOLERANCE);
+        if (.5-distance > tolerance) {return whole;}
+        switch (mode) {
+            case HALF_UP: return negative ? down : up;
+            case HALF_DOWN: return negative ? up : down;
+            default: return (down & 1) == 0 ? down : up;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package plock.math;
+
+import static java.lang.Math.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/** Irregular deposits and withdrawals on actual dates, for when an account isn't level or geometrically
+ *   growing payments at regular periods.  Flows are kept as primitive arrays of epoch days and amounts,
+ *   sorted by day, and are discounted like XNPV and XIRR in a spreadsheet: to the first day, over
+ *   (day-firstDay)/365 years at an effective annual rate.  Deposits are negative and withdrawals (or the
+ *   ending balance) are positive, or the other way around, xirr() only needs both signs.
+ *   <pre>
+ *   DatedCashFlows flows = new DatedCashFlows().add(LocalDate.of(2015,1,1), -10000)
+ *       .add(LocalDate.of(2015,7,3), -2500).add(LocalDate.of(2016,3,1), 13100);
+ *   double irr = flows.xirr();
+ *   </pre>
+ *   Not safe to add to from more than one thread, but once the flows are added any number of threads can
+ *   call xnpv() and xirr(), nothing is allocated per evaluation.  Flows added out of order are sorted when
+ *   first needed, by whichever thread gets there first while the others wait.
+ */
+public class DatedCashFlows {
+    private static final double DAYS_PER_YEAR = 365;
+    /** Newton with the analytic derivative, to within a small fraction of a cent per dollar of flows */
+    private static final Math.Solver NEWTON = new Math.Solver().method(Math.Method.NEWTON).step(.01);
+    /** the Brent fallback gets a lot more room since it starts from the whole range of rates */
+    private static final Math.Solver BRENT = new Math.Solver().maxIterations(500).maxEvaluations(600);
+
+    private long[] days = new long[16];
+    private double[] amounts = new double[16];
+    private int size;
+    /** written last when sorting, so seeing it true means the arrays are sorted */
+    private volatile boolean sorted = true;
+    /** years from the first day for each flow, built when first needed after the flows change */
+    private volatile double[] years;
+
+    public DatedCashFlows() {}
+    /** copies the flows, they don't need to be sorted */
+    public DatedCashFlows(long[] epochDays, double[] amounts) {
+        if (epochDays.length != amounts.length) {throw new IllegalArgumentException("need an amount for every day");}
+        this.days = Arrays.copyOf(epochDays, max(16, epochDays.length));
+        this.amounts = Arrays.copyOf(amounts, max(16, amounts.length));
+        this.size = epochDays.length;
+        this.sorted = false;
+        sort();
+    }
+
+    public DatedCashFlows add(LocalDate date, double amount) {return add(date.toEpochDay(), amount);}
+    public DatedCashFlows add(long epochDay, double amount) {
+        if (size == days.length) {
+            days = Arrays.copyOf(days, size*2);
+            amounts = Arrays.copyOf(amounts, size*2);
+        }
+        if (size > 0 && epochDay < days[size-1]) {sorted = false;}
+        days[size] = epochDay;
+        amounts[size] = amount;
+        size++;
+        years = null;
+        return this;
+    }
+    public DatedCashFlows addAll(DatedCashFlows o) {
+        o.sort();
+        for (int i=0; i<o.size; i++) {add(o.days[i], o.amounts[i]);}
+        return this;
+    }
+
+    public int size() {return size;}
+    public long getDay(int i) {sort(); checkIndex(i); return days[i];}
+    public double getAmount(int i) {sort(); checkIndex(i); return amounts[i];}
+    /** @return the day everything is discounted to */
+    public long getFirstDay() {
+        if (size == 0) {throw new IllegalStateException("no flows");}
+        sort();
+        return days[0];
+    }
+    private void checkIndex(int i) {if (i < 0 || i >= size) {throw new IndexOutOfBoundsException(i+" of "+size);}}
+
+    /** @return the flows discounted to the first day at the given effective annual rate */
+    public double xnpv(double rate) {
+        double[] t = years();
+        double discount = -log1p(rate), sum = 0;
+        for (int i=0; i<size; i++) {sum += amounts[i] * exp(t[i]*discount);}
+        return sum;
+    }
+    /** @return the flows discounted to the given day instead of the first */
+    public double xnpv(double rate, long epochDay) {
+        return xnpv(rate) * pow(1+rate, (getFirstDay()-epochDay)/DAYS_PER_YEAR);
+    }
+    /** @return d xnpv / d rate */
+    public double xnpvDerivative(double rate) {
+        double[] t = years();
+        double discount = -log1p(rate), sum = 0;
+        for (int i=0; i<size; i++) {sum -= t[i] * amounts[i] * exp(t[i]*discount);}
+        return sum / (1+rate);
+    }
+
+    public double xirr() {return xirr(.1);}
+    /** @return the effective annual rate that makes xnpv 0
+     *  @throws IllegalArgumentException if there aren't both positive and negative flows, or no rate was found
+     */
+    public double xirr(double guess) {return xirrSolution(guess).getXOrThrow();}
+    /** Newton with the analytic derivative from the guess, and if that fails Brent over all rates above -1 */
+    public Math.Solution xirrSolution(double guess) {
+        double[] t = years();
+        boolean positive = false, negative = false;
+        double gross = 0;
+        for (int i=0; i<size; i++) {
+            positive |= amounts[i] > 0;
+            negative |= amounts[i] < 0;
+            gross += abs(amounts[i]);
+        }
+        if (!positive || !negative) {throw new IllegalArgumentException("xirr needs both positive and negative flows");}
+        double tolerance = gross*1e-12;
+        // xnpv and its derivative share the same terms, so Newton's derivative is picked up from the same pass
+        double[] last = {Double.NaN, Double.NaN};
+        Math.Solution solution = NEWTON.tolerance(tolerance).solve(
+            rate -> evaluate(t, rate, last),
+            rate -> rate == last[0] ? last[1] : xnpvDerivative(rate),
+            0, guess);
+        if (solution.isConverged() && solution.getX() > -1) {return solution;}
+        // far from the guess, Newton can step past -1 where nothing is defined, so bracket the whole range
+        double low = -1+1e-9, high = 1, fLow = xnpv(low);
+        while (high < 1e9 && signum(xnpv(high)) == signum(fLow)) {high *= 4;}
+        return BRENT.tolerance(tolerance).solve(this::xnpv, null, 0, low, high);
+    }
+    /** xnpv(rate), leaving the rate and derivative in last */
+    private double evaluate(double[] t, double rate, double[] last) {
+        double discount = -log1p(rate), sum = 0, derivative = 0;
+        for (int i=0; i<size; i++) {
+            double pv = amounts[i] * exp(t[i]*discount);
+            sum += pv;
+            derivative -= t[i] * pv;
+        }
+        last[0] = rate;
+        last[1] = derivative / (1+rate);
+        return sum;
+    }
+
+    private double[] years() {
+        double[] t = years;
+        return t != null ? t : buildYears();
+    }
+    private synchronized double[] buildYears() {
+        double[] t = years;
+        if (t != null) {return t;}
+        sort();
+        t = new double[size];
+        for (int i=0; i<size; i++) {t[i] = (days[i]-days[0])/DAYS_PER_YEAR;}
+        years = t;
+        return t;
+    }
+    /** a stable merge sort of the two arrays together by day, only done after flows were added out of order */
+    private void sort() {
+        if (!sorted) {sortNow();}
+    }
+    private synchronized void sortNow() {
+        if (sorted) {return;}
+        long[] dayBuffer = new long[size];
+        double[] amountBuffer = new double[size];
+        for (int width=1; width<size; width*=2) {
+            for (int from=0; from<size; from+=2*width) {
+                int mid = min(from+width, size), to = min(from+2*width, size);
+                int i = from, j = mid, k = from;
+                while (i < mid || j < to) {
+                    int next = j >= to || i < mid && days[i] <= days[j] ? i++ : j++;
+                    dayBuffer[k] = days[next];
+                    amountBuffer[k++] = amounts[next];
+                }
+            }
+            System.arraycopy(dayBuffer, 0, days, 0, size);
+            System.arraycopy(amountBuffer, 0, amounts, 0, size);
+        }
+        years = null;
+        sorted = true;
+    }
+
+    public String toString() {
+        sort();
+        StringBuilder sb = new StringBuilder("[");
+        for (int i=0; i<size; i++) {
+            if (i > 0) {sb.append(',');}
+            sb.append("{day:").append(LocalDate.ofEpochDay(days[i])).append(",amount:").append(amounts[i]).append('}');
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -1,6 +1,7 @@
 package plock.math;
 
 import java.util.*;
+import java.util.function.*;
 import java.util.stream.*;
 
 import javafx.beans.value.*;
@@ -16,11 +17,12 @@ import plock.prop.DoublePropertyFunctionWrapper;
  *   between nominal to effective rates and vice versa, and there is a helper function to
  *   find the "effective payment" per period if payments and interest is compounded.  To compound
  *   payments and interest, configure everything in terms of a year, and simply set the amount of compounding.
+ *   To change several values with only one solve at the end, make the changes within update() or batch().
  */
 public class Finance implements Cloneable {
     private TmvParams solveFor = TmvParams.fv;
     private final DoubleBinding computedSolution = new DoubleBinding() {
-        @Override protected double computeValue() {/*System.out.println("got "+solve());*/ return solve();}
+        @Override protected double computeValue() {/*System.out.println("got "+solve());*/ recomputes++; return solve();}
     };
     private final SimpleDoubleProperty fv = new SimpleDoubleProperty();
     private final SimpleDoubleProperty pv = new SimpleDoubleProperty();
@@ -31,35 +33,39 @@ public class Finance implements Cloneable {
     private final SimpleIntegerProperty comp = new SimpleIntegerProperty(1);
     private final SimpleBooleanProperty due = new SimpleBooleanProperty();
     private final SimpleObjectProperty<TmvParams> solveForProp = new SimpleObjectProperty<TmvParams>(TmvParams.fv);
+    private SolveCache solveCache;
+    private final Map<TmvParams,Math.Solver> solvers = new EnumMap<TmvParams,Math.Solver>(TmvParams.class);
+    private int batchDepth;
+    private boolean solutionStale, compPmtStale;
+    private long recomputes;
     
     /** this is the rate that will be compounded "comp" times across a single period */
     private final DoubleBinding comp_r = new DoubleBinding() {
         {Stream.of((ObservableValue)r,comp).forEach(obs->obs.addListener((obj,oldVal,newVal)->invalidate()));}
         @Override protected double computeValue() {
             //System.out.println("calc comp_r from r:"+r+","+r.get()+" and comp:" +comp.get());
-            if (comp.get() == 1) {return r.get();}
-            return pow(1+r.get(),1.0/comp.get())-1; // the monthly rate from the given effective annual rate
+            return TvmKernel.compRate(r.get(), comp.get());
         }
     };
     /** this is all the payments together for a whole period with compounded interest on the payments */
     private final DoubleProperty comp_pmt = DoublePropertyFunctionWrapper.bidirectionalBind(pmt,
         payment -> {
             //System.out.println("comp_pmt is recalculated based on pmt "+payment+" with comp: "+comp.get()+" comp_r: "+comp_r.get());
-            if (comp.get() == 1) {return payment;}
-            if (comp_r.get() == 0.0) {
-                return comp.get()*payment;
-            }
-            // this is an orinary annuity for "comp" months
-            return payment/comp_r.get() * (pow(1+comp_r.get(),comp.get())-1);
+            return payment * TvmKernel.paymentCompoundingFactor(comp_r.get(), comp.get());
         },
         inv-> {
             //System.out.println("pmt is getting recalculated based on comp_pmt "+inv+" with comp: "+comp.get());
-            if (comp.get() == 1) {return inv;}
-            if (comp_r.get() == 0.0) {
-                return inv/comp.get();
-            }
-            return inv*comp_r.get() / (pow(1+comp_r.get(),comp.get())-1);
-        }, new SimpleDoubleProperty(), comp, r); // when comp updates, need to recalc
+            return inv / TvmKernel.paymentCompoundingFactor(comp_r.get(), comp.get());
+        }, new SimpleDoubleProperty());
+    {
+        // when comp or r updates, need to recalc, unless in a batch where it is only done once at the end
+        Stream.of((ObservableValue<?>)comp, r).forEach(obs->obs.addListener((obj,oldVal,newVal)->{
+            if (batchDepth > 0) {compPmtStale = true;} else {refreshCompPmt();}
+        }));
+    }
+    private void refreshCompPmt() {
+        comp_pmt.set(pmt.get() * TvmKernel.paymentCompoundingFactor(comp_r.get(), comp.get()));
+    }
 
     public Finance() {
         fv.bind(computedSolution);
@@ -82,12 +88,15 @@ public class Finance implements Cloneable {
     }
 
     private ChangeListener<?> solutionInvalidationListener = (bean,oldVal,newVal) -> {
-    	computedSolution.invalidate();
+    	invalidateSolution();
     };
+    private void invalidateSolution() {
+        if (batchDepth > 0) {solutionStale = true;} else {computedSolution.invalidate();}
+    }
     @SuppressWarnings("unchecked")
 	private void configureSolutionInvalidation() {
     	Stream.of(TmvParams.pv, TmvParams.fv, TmvParams.pmt, TmvParams.comp_pmt, TmvParams.r,
-                TmvParams.g, TmvParams.n, TmvParams.comp).filter(p->!solveFor.equals(p))
+                TmvParams.g, TmvParams.n, TmvParams.comp, TmvParams.due).filter(p->!solveFor.equals(p))
                     .forEach(p->getProperty(p).addListener(solutionInvalidationListener));
         solveForProp.addListener((obs, oldSolveFor, newSolveFor) -> {
 	    	getProperty(oldSolveFor).unbind(); // this unbinds the solve() method from the old solution property
@@ -96,7 +105,7 @@ public class Finance implements Cloneable {
 	    	getProperty(oldSolveFor).addListener(solutionInvalidationListener);
 	
 	    	this.solveFor = newSolveFor;
-	        computedSolution.invalidate(); 
+	        invalidateSolution();
 	        getProperty(solveFor).bind(computedSolution);
         });
     }
@@ -175,8 +184,75 @@ public class Finance implements Cloneable {
     }
 
     public Finance copy() {
-        return new Finance(getValues(), solveFor);
+        Finance copy = new Finance(getValues(), solveFor).solveCache(solveCache).due(due.get());
+        copy.solvers.putAll(solvers);
+        return copy;
+    }
+
+    /** use the given solver (like Brent or Newton) when p has to be solved by iterating, null for the default */
+    public Finance solver(TmvParams p, Math.Solver solver) {
+        if (solver == null) {solvers.remove(p);} else {solvers.put(p, solver);}
+        invalidateSolution();
+        return this;
+    }
+    public Math.Solver getSolver(TmvParams p) {
+        Math.Solver solver = solvers.get(p);
+        return solver == null ? TvmKernel.defaultSolver(p) : solver;
+    }
+
+    /** solutions will be looked up in (and added to) the cache, which can be shared, null to not cache */
+    public Finance solveCache(SolveCache solveCache) {
+        this.solveCache = solveCache;
+        invalidateSolution();
+        return this;
+    }
+    public SolveCache getSolveCache() {return solveCache;}
+
+    /** makes all the changes, then comp_pmt and the solution are recomputed once instead of after every change,
+     *  values read within the changes may be stale.  Updates can be nested, only the outermost recomputes.
+     */
+    public Finance update(Consumer<Finance> changes) {
+        Batch batch = batch();
+        try {
+            changes.accept(this);
+        } finally {
+            batch.close();
+        }
+        return this;
+    }
+    /** same as update(), for use with try-with-resources, the recompute happens on close() */
+    public Batch batch() {
+        batchDepth++;
+        return new Batch();
+    }
+    public final class Batch implements AutoCloseable {
+        private boolean closed;
+        private Batch() {}
+        @Override public void close() {
+            if (closed) {return;}
+            closed = true;
+            if (batchDepth == 1 && compPmtStale) {
+                compPmtStale = false;
+                refreshCompPmt(); // still in the batch, so this only marks the solution stale
+            }
+            if (--batchDepth == 0 && solutionStale) {
+                solutionStale = false;
+                computedSolution.invalidate();
+            }
+        }
+    }
+    public boolean isInBatch() {return batchDepth > 0;}
+
+    /** @return fv and its derivatives at the current values, including whatever is solved for */
+    public Sensitivity fvSensitivity() {
+        return new Sensitivity().fv(pv.get(), r.get(), g.get(), n.get(), pmt.get(), comp.get(), due.get());
+    }
+    /** @return pv (with fv held) and its derivatives at the current values, including whatever is solved for */
+    public Sensitivity pvSensitivity() {
+        return new Sensitivity().pv(fv.get(), r.get(), g.get(), n.get(), pmt.get(), comp.get(), due.get());
     }
+    /** @return how many times the solution has been computed */
+    public long getRecomputeCount() {return recomputes;}
 
     public TmvParams getSolveFor() {return solveFor;}
     public SimpleObjectProperty<TmvParams> solveForProperty() {return solveForProp;}
@@ -196,68 +272,35 @@ public class Finance implements Cloneable {
         http://www.calculatorsoup.com/calculators/financial/
     */
     private double solve() {
-        if (due.get()) { return (Double)copy().pv(pv.get()+pmt.get()).due(false).getSolution(); }
-        switch (solveFor) {
-            case fv:
-                double rateFactor = pow(1+r.get(),n.get());
-                double basicInterest = pv.get() * rateFactor; 
-                if (r.get()-g.get()==0) {
-                    return basicInterest + comp_pmt.get()*n.get()*pow(1+r.get(),n.get()-1);
-                } else {
-                    return basicInterest + comp_pmt.get()/(r.get()-g.get()) * (rateFactor - pow(1+g.get(),n.get()));
-                }
-            case pv:
-                /* this doesn't work with the compounding
-                if (r==g) { return copy().r(r+=.0000001).solve(TmvParams.pv); } 
-                return fv/rateFactor - pmt/(r-g) * (1 - pow((1+g)/(1+r), n) );
-                */
-                break;
-            case pmt:
-                /* this does not work with the compounding
-                if (g == 0) {
-                    return r*(fv-pv*rateFactor)/(rateFactor-1);
-                }
-                */
-                break;
-            case r: 
-                /* this does not work with the compounding 
-                if (g == 0) {
-                    return pow( (fv+pmt/r) / (pmt/r+pv), 1/n) -1;
-                }
-                */
-                break;
-            case g:
-                if (pmt.get()==0.0 || n.get() == 0.0) {
-                    throw new IllegalArgumentException("cannot solve g with no payments");
-                }
-                break;
-            case n:
-                break;
-            case comp_pmt:
-                break;
-            default:
-                throw new IllegalArgumentException("not implemented for "+solveFor);
+        try {
+            if (solveCache != null) {
+                return solveCache.solve(getSolver(solveFor), solveFor, known(pv), known(fv), known(r), known(g),
+                    known(n), known(pmt), comp.get(), due.get());
+            }
+            return TvmKernel.solve(getSolver(solveFor), solveFor, known(pv), known(fv), known(r), known(g), known(n),
+                known(pmt), comp.get(), due.get());
+        } catch (IllegalArgumentException e) {
+            printKnownValues();
+            throw e;
         }
-        // didn't have a direct function, so we'll iterate to find a solution
+    }
+    /** skips any direct function and iterates to find a solution against fv */
+    double iterateSolution() {
         try {
-            double d = 
-            Math.iterateSolve(x->{
-                Finance f = new Finance();
-                Stream.of("pv","n","r","g","pmt","comp").filter(p->!solveFor.toString().equals(p)).forEach(p->{
-                    f.set(p, (Number)get(p));
-                });
-                f.set(solveFor,x);
-                //System.out.println("setting "+solveFor+" to "+x+" and got "+f.getSolution());
-                return f.getSolution();
-            },fv.get(),0.0,.00000001,.00001);
-            return d;
+            return TvmKernel.iterate(getSolver(solveFor), solveFor, known(pv), known(fv), known(r), known(g), known(n),
+                known(pmt), comp.get(), due.get());
         } catch (IllegalArgumentException e) {
-                Stream.of("pv","n","r","g","pmt","comp","comp_pmt").filter(p->!solveFor.toString().equals(p)).forEach(p->{
-                    System.out.println("failed with "+p+": "+get(p));
-                });
+            printKnownValues();
             throw e;
         }
     } 
+    /** the property being solved for is bound to the solution, so reading it here would recurse */
+    private double known(SimpleDoubleProperty p) {return getProperty(solveFor) == p ? Double.NaN : p.get();}
+    private void printKnownValues() {
+        Stream.of("pv","n","r","g","pmt","comp","comp_pmt").filter(p->!solveFor.toString().equals(p)).forEach(p->{
+            System.out.println("failed with "+p+": "+get(p));
+        });
+    }
     public static final double compoundInterestRate(double presentValue, double futureValue, double periods) {
         return pow(futureValue/presentValue, 1/periods)-1;
     } 
@@ -0,0 +1,254 @@
+package plock.math;
+
+import java.util.*;
+import java.util.concurrent.*;
+import plock.math.Finance.TmvParams;
+
+/** Solves a Finance problem at every point of a grid of parameter ranges, like r from .03 to .09 by .001
+ *   for every n from 5 to 40 for every g from 0 to .05.  Parameters without a range keep their base value.
+ *   The grid is split across cores with fork/join and each point is streamed to a consumer or folded into
+ *   a reducer, nothing is collected.  Points are numbered with the last added range varying fastest,
+ *   and valueAt() turns a point's index back into its parameters.
+ *   <pre>
+ *   FinanceSweep sweep = new FinanceSweep().pmt(200).comp(12)
+ *       .range(TmvParams.r, .03, .09, .001).range(TmvParams.n, 5, 40, 1).range(TmvParams.g, 0, .05, .005);
+ *   FinanceSweep.Extremes e = sweep.reduce(FinanceSweep.extremes());
+ *   double bestR = sweep.valueAt(e.getArgMax(), TmvParams.r);
+ *   </pre>
+ */
+public class FinanceSweep {
+    /** the parameters that can be swept, also the index into the values array */
+    private static final List<TmvParams> PARAMS = Arrays.asList(
+        TmvParams.pv, TmvParams.fv, TmvParams.r, TmvParams.g, TmvParams.n, TmvParams.pmt);
+    /** points per fork/join leaf */
+    private static final int LEAF_SIZE = 4096;
+
+    private final double[] base = new double[PARAMS.size()];
+    private int comp = 1;
+    private boolean due;
+    private TmvParams solveFor = TmvParams.fv;
+    private final List<Range> ranges = new ArrayList<Range>();
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    /** called concurrently from the fork/join workers, so it must be thread safe */
+    @FunctionalInterface
+    public interface SweepConsumer {
+        void accept(long index, double solution);
+    }
+    /** folds the points of the grid, each worker gets its own accumulator and the accumulators are then combined */
+    public interface Reducer<A> {
+        A create();
+        void accept(A acc, long index, double solution);
+        A combine(A left, A right);
+    }
+
+    private static final class Range {
+        final int param;
+        final double from, step;
+        final long count;
+        Range(int param, double from, double to, double step) {
+            this.param = param;
+            this.from = from;
+            this.step = step;
+            // a little slack so a "to" that is a multiple of step is not lost to rounding
+            this.count = (long)java.lang.Math.floor((to-from)/step + 1e-9) + 1;
+        }
+        double valueAt(long i) {return from + i*step;}
+    }
+
+    public FinanceSweep pv(double pv) {return base(TmvParams.pv, pv);}
+    public FinanceSweep fv(double fv) {return base(TmvParams.fv, fv);}
+    public FinanceSweep r(double r) {return base(TmvParams.r, r);}
+    public FinanceSweep g(double g) {return base(TmvParams.g, g);}
+    public FinanceSweep n(double n) {return base(TmvParams.n, n);}
+    public FinanceSweep pmt(double pmt) {return base(TmvParams.pmt, pmt);}
+    public FinanceSweep comp(int comp) {
+        if (comp<=0) {throw new IllegalArgumentException("must be > 0");}
+        this.comp = comp; return this;
+    }
+    public FinanceSweep due(boolean due) {this.due = due; return this;}
+    public FinanceSweep solveFor(TmvParams solveFor) {
+        for (Range range : ranges) {
+            if (PARAMS.get(range.param) == solveFor) {
+                throw new IllegalArgumentException("cannot solve for "+solveFor+", it is being swept");
+            }
+        }
+        this.solveFor = solveFor; return this;
+    }
+    public FinanceSweep pool(ForkJoinPool pool) {this.pool = pool; return this;}
+    private FinanceSweep base(TmvParams p, double value) {base[paramIndex(p)] = value; return this;}
+
+    /** sweeps p over from, from+step, ... up to and including to */
+    public FinanceSweep range(TmvParams p, double from, double to, double step) {
+        if (!(step > 0) || to < from) {throw new IllegalArgumentException("need from <= to and step > 0 for "+p);}
+        int param = paramIndex(p);
+        if (p == solveFor) {throw new IllegalArgumentException("cannot sweep "+p+", it is being solved for");}
+        ranges.removeIf(range->range.param == param);
+        ranges.add(new Range(param, from, to, step));
+        return this;
+    }
+    private static int paramIndex(TmvParams p) {
+        int i = PARAMS.indexOf(p);
+        if (i < 0) {throw new IllegalArgumentException("cannot sweep "+p);}
+        return i;
+    }
+
+    /** @return the number of points in the grid */
+    public long size() {
+        long size = 1;
+        for (Range range : ranges) {size = java.lang.Math.multiplyExact(size, range.count);}
+        return size;
+    }
+    /** @return the value of p at the given point of the grid */
+    public double valueAt(long index, TmvParams p) {
+        int param = paramIndex(p);
+        for (int d=ranges.size()-1; d>=0; d--) {
+            Range range = ranges.get(d);
+            if (range.param == param) {return range.valueAt(index % range.count);}
+            index /= range.count;
+        }
+        return base[param];
+    }
+
+    /** streams every point to the consumer from the fork/join workers, in no particular order */
+    public void forEach(SweepConsumer consumer) {
+        Range[] dims = ranges.toArray(new Range[ranges.size()]);
+        pool.invoke(new SweepAction(dims, 0, size(), consumer));
+    }
+    public <A> A reduce(Reducer<A> reducer) {
+        Range[] dims = ranges.toArray(new Range[ranges.size()]);
+        return pool.invoke(new ReduceTask<A>(dims, 0, size(), reducer));
+    }
+
+    /** solves [from, to) of the grid, values is scratch space for the parameters of a point */
+    private void solveRange(Range[] dims, long from, long to, double[] values, SweepConsumer consumer) {
+        for (long i=from; i<to; i++) {
+            System.arraycopy(base, 0, values, 0, values.length);
+            long index = i;
+            for (int d=dims.length-1; d>=0; d--) {
+                values[dims[d].param] = dims[d].valueAt(index % dims[d].count);
+                index /= dims[d].count;
+            }
+            consumer.accept(i, solve(values));
+        }
+    }
+    private double solve(double[] v) {
+        try {
+            return TvmKernel.solve(solveFor, v[0], v[1], v[2], v[3], v[4], v[5], comp, due);
+        } catch (IllegalArgumentException e) {
+            return Double.NaN;
+        }
+    }
+
+    private class SweepAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final Range[] dims;
+        private final long from, to;
+        private final SweepConsumer consumer;
+        SweepAction(Range[] dims, long from, long to, SweepConsumer consumer) {
+            this.dims = dims; this.from = from; this.to = to; this.consumer = consumer;
+        }
+        @Override protected void compute() {
+            if (to-from <= LEAF_SIZE) {
+                solveRange(dims, from, to, new double[base.length], consumer);
+                return;
+            }
+            long mid = from + (to-from)/2;
+            invokeAll(new SweepAction(dims, from, mid, consumer), new SweepAction(dims, mid, to, consumer));
+        }
+    }
+    private class ReduceTask<A> extends RecursiveTask<A> {
+        private static final long serialVersionUID = 1L;
+        private final Range[] dims;
+        private final long from, to;
+        private final Reducer<A> reducer;
+        ReduceTask(Range[] dims, long from, long to, Reducer<A> reducer) {
+            this.dims = dims; this.from = from; this.to = to; this.reducer = reducer;
+        }
+        @Override protected A compute() {
+            if (to-from <= LEAF_SIZE) {
+                A acc = reducer.create();
+                solveRange(dims, from, to, new double[base.length], (i, solution)->reducer.accept(acc, i, solution));
+                return acc;
+            }
+            long mid = from + (to-from)/2;
+            ReduceTask<A> right = new ReduceTask<A>(dims, mid, to, reducer);
+            right.fork();
+            A left = new ReduceTask<A>(dims, from, mid, reducer).compute();
+            return reducer.combine(left, right.join());
+        }
+    }
+
+    /** min and max of the solutions and where they are, NaN solutions are only counted */
+    public static class Extremes {
+        private double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        private long argMin = -1, argMax = -1, count, nanCount;
+        public double getMin() {return min;}
+        public double getMax() {return max;}
+        /** @return the index of the point with the smallest solution, -1 if none */
+        public long getArgMin() {return argMin;}
+        /** @return the index of the point with the largest solution, -1 if none */
+        public long getArgMax() {return argMax;}
+        public long getCount() {return count;}
+        public long getNanCount() {return nanCount;}
+        void accept(long index, double solution) {
+            count++;
+            if (Double.isNaN(solution)) {nanCount++; return;}
+            // ties go to the lowest index so the answer doesn't depend on how the grid was split
+            if (argMin < 0 || solution < min || solution == min && index < argMin) {min = solution; argMin = index;}
+            if (argMax < 0 || solution > max || solution == max && index < argMax) {max = solution; argMax = index;}
+        }
+        Extremes combine(Extremes o) {
+            if (o.argMin >= 0) {accept(o.argMin, o.min); count--;}
+            if (o.argMax >= 0) {accept(o.argMax, o.max); count--;}
+            count += o.count;
+            nanCount += o.nanCount;
+            return this;
+        }
+        public String toString() {return "{min:"+min+"@"+argMin+",max:"+max+"@"+argMax+",count:"+count+",nan:"+nanCount+"}";}
+    }
+    public static Reducer<Extremes> extremes() {
+        return new Reducer<Extremes>() {
+            public Extremes create() {return new Extremes();}
+            public void accept(Extremes acc, long index, double solution) {acc.accept(index, solution);}
+            public Extremes combine(Extremes left, Extremes right) {return left.combine(right);}
+        };
+    }
+
+    /** counts of solutions in equal width bins across [low, high), with separate counts for under, over and NaN */
+    public static class Histogram {
+        private final double low, high;
+        private final long[] bins;
+        private long under, over, nanCount;
+        public Histogram(double low, double high, int bins) {
+            if (!(high > low) || bins <= 0) {throw new IllegalArgumentException("need low < high and bins > 0");}
+            this.low = low; this.high = high; this.bins = new long[bins];
+        }
+        public double getLow() {return low;}
+        public double getHigh() {return high;}
+        public long[] getBins() {return bins.clone();}
+        public long getUnder() {return under;}
+        public long getOver() {return over;}
+        public long getNanCount() {return nanCount;}
+        void accept(double solution) {
+            if (Double.isNaN(solution)) {nanCount++;}
+            else if (solution < low) {under++;}
+            else if (solution >= high) {over++;}
+            else {bins[java.lang.Math.min(bins.length-1, (int)((solution-low)/(high-low)*bins.length))]++;}
+        }
+        Histogram combine(Histogram o) {
+            for (int i=0; i<bins.length; i++) {bins[i] += o.bins[i];}
+            under += o.under; over += o.over; nanCount += o.nanCount;
+            return this;
+        }
+        public String toString() {return "{low:"+low+",high:"+high+",bins:"+Arrays.toString(bins)
+            +",under:"+under+",over:"+over+",nan:"+nanCount+"}";}
+    }
+    public static Reducer<Histogram> histogram(double low, double high, int bins) {
+        return new Reducer<Histogram>() {
+            public Histogram create() {return new Histogram(low, high, bins);}
+            public void accept(Histogram acc, long index, double solution) {acc.accept(solution);}
+            public Histogram combine(Histogram left, Histogram right) {return left.combine(right);}
+        };
+    }
+}
@@ -12,56 +12,328 @@ public class Math {
         @return x within e of the exact answer
     */
     public static double iterateSolve(final Function<Double,Double> f, final double t, 
-            final double s, final double inc, final double e) {
-        double right = f.apply(s+inc);
-        double fs = f.apply(s);
-        //System.out.println("binary expand target "+t+" and err: "+e+" with x: "+s+" inc: "+inc+" f(x):"+fs+" f(x+inc):"+right);
-
-        if (Double.isNaN(fs) || Double.isNaN(right)) {
-            String message ="cannot find a valid value for function, target: "+t+" checking against "+right;
-            message += " and "+fs+" currently: "+s+" and inc: "+inc;
-            throw new IllegalArgumentException(message);
-        }
-        if (abs(fs-t) < e) {return s;}
-        if (abs(right-t) < e) {return s+inc;}
-        // so first two here check for t not inbetween f(s) and f(s+inc)
-        if (fs < t && right < t) { // is t more to the right?
-            //System.out.println("t is larger, move to the right");
-            // if moving x to the right moves f(x) right, keep going more right, else left
-            return iterateSolve(f, t, right>fs ? (s+inc) : (s-2*inc), inc*2, e);
-        }
-        if (fs > t && right > t) { // is t more to the left?
-            //System.out.println("t is smaller, move to the left");
-            // if moving x to the right moves f(x) left, keep going more right, else left
-            return iterateSolve(f, t, right<fs ? (s+inc) : (s-2*inc), inc*2, e);
-        }
-
-        return iterateSolveSmaller(f, t, s, inc, e);       
+            double s, double inc, final double e) {
+        // each pass moves s and doubles inc until t is between f(s) and f(s+inc)
+        while (true) {
+            double right = f.apply(s+inc);
+            double fs = f.apply(s);
+            //System.out.println("binary expand target "+t+" and err: "+e+" with x: "+s+" inc: "+inc+" f(x):"+fs+" f(x+inc):"+right);
+
+            if (Double.isNaN(fs) || Double.isNaN(right)) {
+                String message ="cannot find a valid value for function, target: "+t+" checking against "+right;
+                message += " and "+fs+" currently: "+s+" and inc: "+inc;
+                throw new IllegalArgumentException(message);
+            }
+            if (abs(fs-t) < e) {return s;}
+            if (abs(right-t) < e) {return s+inc;}
+            // so first two here check for t not inbetween f(s) and f(s+inc)
+            if (fs < t && right < t) { // is t more to the right?
+                //System.out.println("t is larger, move to the right");
+                // if moving x to the right moves f(x) right, keep going more right, else left
+                s = right>fs ? (s+inc) : (s-2*inc);
+                inc *= 2;
+                continue;
+            }
+            if (fs > t && right > t) { // is t more to the left?
+                //System.out.println("t is smaller, move to the left");
+                // if moving x to the right moves f(x) left, keep going more right, else left
+                s = right<fs ? (s+inc) : (s-2*inc);
+                inc *= 2;
+                continue;
+            }
+
+            return iterateSolveSmaller(f, t, s, inc, e);       
+        }
     } 
     private static double iterateSolveSmaller(final Function<Double,Double> f, final double t, 
-            final double s, final double inc, final double e) {
-        double right = f.apply(s+inc);
-        double fs = f.apply(s);
-        //System.out.println("binary search target "+t+" and err: "+e+" with x: "+s+" inc: "+inc+" f(x):"+fs+" f(x+inc):"+right);
-        if (inc == 0.0 || fs == t) {return s;} 
-        // first we check if we already have and answer with f(s)
-        // opposite signs, subtracting will give total distance that we need absolute value of
-        if (copySign(fs,t) != fs && abs(fs-t) <= e) {return s;}
-        // same sign, get abs values of each, the diff of that, then abs value of result
-        if (copySign(fs,t) == fs && abs(abs(fs)-abs(t)) <=e) {return s;}
-
-        // either we're working with infinity, or the increment is not creating a change in function, won't be able
-        // to solve
-        if (right == fs || s == Double.NEGATIVE_INFINITY || s == Double.POSITIVE_INFINITY) {return Double.NaN;}
-
-        // so t is in between f(s) and f(s+inc), recurse checking if falls in left or right
-        double half = f.apply(s+inc/2);
-        if (fs<t && half<=t || fs>t && half>=t) { // no longer inbetween, must be other side
-            //System.out.println("split in half but it is in the other half");
-            return iterateSolveSmaller(f, t, s+inc/2, inc/2, e);
-        }
-        //System.out.println("split in half and is in the first half"); 
-        return iterateSolveSmaller(f, t, s, inc/2, e);
+            double s, double inc, final double e) {
+        // each pass halves inc, keeping t between f(s) and f(s+inc)
+        while (true) {
+            double right = f.apply(s+inc);
+            double fs = f.apply(s);
+            //System.out.println("binary search target "+t+" and err: "+e+" with x: "+s+" inc: "+inc+" f(x):"+fs+" f(x+inc):"+right);
+            if (inc == 0.0 || fs == t) {return s;} 
+            // first we check if we already have and answer with f(s)
+            // opposite signs, subtracting will give total distance that we need absolute value of
+            if (copySign(fs,t) != fs && abs(fs-t) <= e) {return s;}
+            // same sign, get abs values of each, the diff of that, then abs value of result
+            if (copySign(fs,t) == fs && abs(abs(fs)-abs(t)) <=e) {return s;}
+
+            // either we're working with infinity, or the increment is not creating a change in function, won't be able
+            // to solve
+            if (right == fs || s == Double.NEGATIVE_INFINITY || s == Double.POSITIVE_INFINITY) {return Double.NaN;}
+
+            // so t is in between f(s) and f(s+inc), check if falls in left or right
+            double half = f.apply(s+inc/2);
+            if (fs<t && half<=t || fs>t && half>=t) { // no longer inbetween, must be other side
+                //System.out.println("split in half but it is in the other half");
+                s += inc/2;
+            }
+            //System.out.println("split in half and is in the first half"); 
+            inc /= 2;
+        }
+    }
+
+    /** the root finding methods a Solver can use, all but SECANT first find a bracket around the root */
+    public enum Method {
+        /** halves the bracket each iteration, slow but sure */
+        BISECT,
+        /** inverse quadratic interpolation and secant steps inside the bracket, falls back to bisection */
+        BRENT,
+        /** Newton steps (with the derivative if given, else a finite difference) kept inside the bracket */
+        NEWTON,
+        /** secant steps from the guess, no bracket, can fail to converge where the others won't */
+        SECANT
+    }
+
+    /** How to find x where f(x) is within tolerance of a target, with a budget of iterations and of calls to f.
+     *   Starting from a guess, the bracketing methods step away from it (doubling the step each time, like
+     *   iterateSolve()) until the target is between two values of f, and then close in.  Solvers never change
+     *   once made, each setter returns a new Solver, so one can be shared between threads.
+     *   <pre>
+     *   Math.Solution s = new Math.Solver().method(Math.Method.BRENT).tolerance(1e-9).solve(x->x*x, 2, 1);
+     *   </pre>
+     */
+    public static final class Solver {
+        private final Method method;
+        private final double tolerance, step;
+        private final int maxIterations, maxEvaluations;
+
+        public Solver() {this(Method.BRENT, .00001, .00000001, 100, 200);}
+        private Solver(Method method, double tolerance, double step, int maxIterations, int maxEvaluations) {
+            this.method = method; this.tolerance = tolerance; this.step = step;
+            this.maxIterations = maxIterations; this.maxEvaluations = maxEvaluations;
+        }
+        public Solver method(Method method) {return new Solver(method, tolerance, step, maxIterations, maxEvaluations);}
+        /** how close f(x) needs to be to the target */
+        public Solver tolerance(double tolerance) {return new Solver(method, tolerance, step, maxIterations, maxEvaluations);}
+        /** the first step away from the guess when looking for a bracket, or to the second point for SECANT */
+        public Solver step(double step) {
+            if (!(step > 0)) {throw new IllegalArgumentException("step must be > 0");}
+            return new Solver(method, tolerance, step, maxIterations, maxEvaluations);
+        }
+        public Solver maxIterations(int maxIterations) {return new Solver(method, tolerance, step, maxIterations, maxEvaluations);}
+        public Solver maxEvaluations(int maxEvaluations) {return new Solver(method, tolerance, step, maxIterations, maxEvaluations);}
+        public Method getMethod() {return method;}
+        public double getTolerance() {return tolerance;}
+        public double getStep() {return step;}
+        public int getMaxIterations() {return maxIterations;}
+        public int getMaxEvaluations() {return maxEvaluations;}
+
+        /** @return x where f(x) is within tolerance of t, searching out from guess */
+        public Solution solve(DoubleUnaryOperator f, double t, double guess) {return solve(f, null, t, guess);}
+        /** @param df the derivative of f, only used by NEWTON, null to use a finite difference */
+        public Solution solve(DoubleUnaryOperator f, DoubleUnaryOperator df, double t, double guess) {
+            Target target = new Target(f, t, maxEvaluations);
+            if (method == Method.SECANT) {return secant(target, guess, guess+step);}
+            double fGuess = target.apply(guess);
+            if (abs(fGuess) <= tolerance) {return target.solution(guess, fGuess, 0, true, "converged");}
+            // step out from the guess until the target is bracketed
+            double a = guess, fa = fGuess, inc = step;
+            double b = guess+inc, fb = target.apply(b);
+            while (!(fa <= 0 && fb >= 0 || fa >= 0 && fb <= 0)) {
+                if (Double.isNaN(fa) || Double.isNaN(fb)) {
+                    return target.solution(b, fb, 0, false, "cannot find a valid value for function between "+a+" and "+b);
+                }
+                if (target.exhausted()) {return target.solution(b, fb, 0, false, "could not bracket the target");}
+                inc *= 2;
+                // keep going in the direction f gets closer to the target
+                if (abs(fb) < abs(fa)) {
+                    a = b; fa = fb;
+                    b = b+inc; fb = target.apply(b);
+                } else {
+                    b = a; fb = fa;
+                    a = a-inc; fa = target.apply(a);
+                }
+            }
+            return solveBracketed(target, df, a, fa, b, fb, guess);
+        }
+        /** @return x where f(x) is within tolerance of t, f(low)-t and f(high)-t must have opposite signs */
+        public Solution solve(DoubleUnaryOperator f, DoubleUnaryOperator df, double t, double low, double high) {
+            Target target = new Target(f, t, maxEvaluations);
+            if (method == Method.SECANT) {return secant(target, low, high);}
+            double fLow = target.apply(low), fHigh = target.apply(high);
+            if (!(fLow <= 0 && fHigh >= 0 || fLow >= 0 && fHigh <= 0)) {
+                return target.solution(high, fHigh, 0, false, "target is not between f("+low+") and f("+high+")");
+            }
+            return solveBracketed(target, df, low, fLow, high, fHigh, (low+high)/2);
+        }
+
+        private Solution solveBracketed(Target f, DoubleUnaryOperator df, double a, double fa, double b, double fb,
+                double guess) {
+            if (abs(fa) <= tolerance) {return f.solution(a, fa, 0, true, "converged");}
+            if (abs(fb) <= tolerance) {return f.solution(b, fb, 0, true, "converged");}
+            switch (method) {
+                case BISECT: return bisect(f, a, fa, b, fb);
+                case NEWTON: return newton(f, df, a, fa, b, fb, guess);
+                default: return brent(f, a, fa, b, fb);
+            }
+        }
+
+        private Solution bisect(Target f, double a, double fa, double b, double fb) {
+            for (int i=1; i<=maxIterations; i++) {
+                double mid = a + (b-a)/2;
+                if (mid == a || mid == b) {return f.solution(mid, f.last, i, true, "bracket collapsed");}
+                if (f.exhausted()) {return f.solution(mid, Double.NaN, i, false, "out of evaluations");}
+                double fm = f.apply(mid);
+                if (abs(fm) <= tolerance) {return f.solution(mid, fm, i, true, "converged");}
+                if (fa < 0 == fm < 0) {a = mid; fa = fm;} else {b = mid; fb = fm;}
+            }
+            return f.solution(a + (b-a)/2, Double.NaN, maxIterations, false, "out of iterations");
+        }
+
+        /** Brent's method as in Numerical Recipes' zbrent, b is always the best guess and [b,c] the bracket */
+        private Solution brent(Target f, double a, double fa, double b, double fb) {
+            double c = b, fc = fb, d = 0, e = 0;
+            for (int i=1; i<=maxIterations; i++) {
+                if (fb > 0 && fc > 0 || fb < 0 && fc < 0) {
+                    c = a; fc = fa;
+                    e = d = b-a;
+                }
+                if (abs(fc) < abs(fb)) {
+                    a = b; b = c; c = a;
+                    fa = fb; fb = fc; fc = fa;
+                }
+                double tol1 = 2*ulp(b), xm = (c-b)/2;
+                if (abs(fb) <= tolerance) {return f.solution(b, fb, i, true, "converged");}
+                if (abs(xm) <= tol1) {return f.solution(b, fb, i, true, "bracket collapsed");}
+                if (abs(e) >= tol1 && abs(fa) > abs(fb)) {
+                    double p, q, s = fb/fa;
+                    if (a == c) { // secant
+                        p = 2*xm*s;
+                        q = 1-s;
+                    } else { // inverse quadratic interpolation
+                        double qa = fa/fc, r = fb/fc;
+                        p = s*(2*xm*qa*(qa-r) - (b-a)*(r-1));
+                        q = (qa-1)*(r-1)*(s-1);
+                    }
+                    if (p > 0) {q = -q;}
+                    p = abs(p);
+                    if (2*p < java.lang.Math.min(3*xm*q - abs(tol1*q), abs(e*q))) {
+                        e = d;
+                        d = p/q;
+                    } else { // interpolation isn't closing in fast enough, bisect
+                        d = xm;
+                        e = d;
+                    }
+                } else {
+                    d = xm;
+                    e = d;
+                }
+                a = b; fa = fb;
+                b += abs(d) > tol1 ? d : copySign(tol1, xm);
+                if (f.exhausted()) {return f.solution(b, Double.NaN, i, false, "out of evaluations");}
+                fb = f.apply(b);
+            }
+            return f.solution(b, fb, maxIterations, false, "out of iterations");
+        }
+
+        /** Newton steps from the guess, taking a bisection step instead whenever Newton would leave the
+         *  bracket or isn't shrinking fast enough (Numerical Recipes' rtsafe) */
+        private Solution newton(Target f, DoubleUnaryOperator df, double a, double fa, double b, double fb,
+                double guess) {
+            double low = fa < 0 ? a : b, high = fa < 0 ? b : a; // f(low) < 0 < f(high)
+            double x = guess > java.lang.Math.min(a,b) && guess < java.lang.Math.max(a,b) ? guess : (a+b)/2;
+            double dxOld = abs(b-a), dx = dxOld;
+            if (f.exhausted()) {return f.solution(x, Double.NaN, 0, false, "out of evaluations");}
+            double fx = f.apply(x), dfx = f.derivative(df, x, fx, dxOld);
+            for (int i=1; i<=maxIterations; i++) {
+                if (abs(fx) <= tolerance) {return f.solution(x, fx, i, true, "converged");}
+                if (((x-high)*dfx-fx)*((x-low)*dfx-fx) > 0 || abs(2*fx) > abs(dxOld*dfx) || Double.isNaN(dfx)) {
+                    dxOld = dx;
+                    dx = (high-low)/2;
+                    x = low+dx;
+                    if (x == low) {return f.solution(x, fx, i, true, "bracket collapsed");}
+                } else {
+                    dxOld = dx;
+                    dx = fx/dfx;
+                    double previous = x;
+                    x -= dx;
+                    if (x == previous) {return f.solution(x, fx, i, true, "bracket collapsed");}
+                }
+                if (f.exhausted()) {return f.solution(x, Double.NaN, i, false, "out of evaluations");}
+                fx = f.apply(x);
+                if (abs(fx) <= tolerance) {return f.solution(x, fx, i, true, "converged");}
+                dfx = f.derivative(df, x, fx, dx);
+                if (fx < 0) {low = x;} else {high = x;}
+            }
+            return f.solution(x, fx, maxIterations, false, "out of iterations");
+        }
+
+        private Solution secant(Target f, double x0, double x1) {
+            double f0 = f.apply(x0);
+            if (abs(f0) <= tolerance) {return f.solution(x0, f0, 0, true, "converged");}
+            double f1 = f.apply(x1);
+            for (int i=1; i<=maxIterations; i++) {
+                if (abs(f1) <= tolerance) {return f.solution(x1, f1, i, true, "converged");}
+                if (f1 == f0 || Double.isNaN(f1)) {return f.solution(x1, f1, i, false, "secant is flat or undefined");}
+                if (f.exhausted()) {return f.solution(x1, f1, i, false, "out of evaluations");}
+                double x2 = x1 - f1*(x1-x0)/(f1-f0);
+                x0 = x1; f0 = f1;
+                x1 = x2; f1 = f.apply(x1);
+            }
+            return f.solution(x1, f1, maxIterations, false, "out of iterations");
+        }
+        public String toString() {
+            return "{method:"+method+",tolerance:"+tolerance+",step:"+step+",maxIterations:"+maxIterations
+                +",maxEvaluations:"+maxEvaluations+"}";
+        }
+    }
+
+    /** f(x) minus the target, counting how many times f is called */
+    private static final class Target {
+        private final DoubleUnaryOperator f;
+        private final double t;
+        private final int maxEvaluations;
+        private int evaluations;
+        private double last = Double.NaN;
+        Target(DoubleUnaryOperator f, double t, int maxEvaluations) {
+            this.f = f; this.t = t; this.maxEvaluations = maxEvaluations;
+        }
+        double apply(double x) {
+            evaluations++;
+            return last = f.applyAsDouble(x)-t;
+        }
+        boolean exhausted() {return evaluations >= maxEvaluations;}
+        /** @return df(x) if there is one, else a forward difference over a step much smaller than the last one */
+        double derivative(DoubleUnaryOperator df, double x, double fx, double lastStep) {
+            if (df != null) {return df.applyAsDouble(x);}
+            if (exhausted()) {return Double.NaN;}
+            double h = java.lang.Math.max(abs(lastStep)*1e-6, 1e-8*java.lang.Math.max(1, abs(x)));
+            double fh = apply(x+h);
+            return (fh-fx)/h;
+        }
+        Solution solution(double x, double residual, int iterations, boolean converged, String message) {
+            return new Solution(x, residual, iterations, evaluations, converged, message);
+        }
+    }
+
+    /** what a Solver found, and how */
+    public static final class Solution {
+        private final double x, residual;
+        private final int iterations, evaluations;
+        private final boolean converged;
+        private final String message;
+        public Solution(double x, double residual, int iterations, int evaluations, boolean converged, String message) {
+            this.x = x; this.residual = residual; this.iterations = iterations; this.evaluations = evaluations;
+            this.converged = converged; this.message = message;
+        }
+        public double getX() {return x;}
+        /** @return f(x) minus the target, NaN if f wasn't evaluated at x */
+        public double getResidual() {return residual;}
+        public int getIterations() {return iterations;}
+        public int getEvaluations() {return evaluations;}
+        public boolean isConverged() {return converged;}
+        public String getMessage() {return message;}
+        /** @return x if converged, else throws IllegalArgumentException like iterateSolve() does */
+        public double getXOrThrow() {
+            if (!converged) {throw new IllegalArgumentException(message+" "+this);}
+            return x;
+        }
+        public String toString() {
+            return "{x:"+x+",residual:"+residual+",iterations:"+iterations+",evaluations:"+evaluations
+                +",converged:"+converged+",message:"+message+"}";
+        }
     }
 
     public static void main(String[] args) {
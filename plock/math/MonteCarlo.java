@@ -0,0 +1,137 @@
+package plock.math;
+
+import static java.lang.Math.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/** Simulates fv when r and g are drawn again every period instead of being fixed for the whole horizon.
+ *   Each period the balance earns that period's r, and the payment (paid "comp" times a period, compounded
+ *   like in Finance) grows by that period's g before the next period.  With constant distributions this is
+ *   exactly Finance's fv.
+ *   Paths are split across a ForkJoinPool, each task simulates a block of paths side by side in primitive
+ *   arrays with its own SplittableRandom (split from the seed, so a seed always gives the same answer) and
+ *   the fv's go into a QuantileSketch, so memory stays flat no matter how many paths are run.
+ *   <pre>
+ *   MonteCarlo.Result result = new MonteCarlo().pv(1000).pmt(200).comp(12).n(30)
+ *       .r(MonteCarlo.normal(.06, .12)).g(MonteCarlo.uniform(0, .03)).run(10_000_000);
+ *   double[] bands = result.percentiles(5, 50, 95);
+ *   </pre>
+ */
+public class MonteCarlo {
+    /** paths per fork/join leaf, also how many paths are simulated side by side */
+    private static final int BLOCK_SIZE = 1024;
+
+    /** a draw for a single period, must only use the random it is given */
+    @FunctionalInterface
+    public interface Distribution {
+        double sample(SplittableRandom random);
+    }
+    public static Distribution constant(double value) {return random->value;}
+    public static Distribution uniform(double low, double high) {
+        if (!(high >= low)) {throw new IllegalArgumentException("need low <= high");}
+        return random->low + (high-low)*random.nextDouble();
+    }
+    public static Distribution normal(double mean, double stdDev) {
+        return random->mean + stdDev*gaussian(random);
+    }
+    /** the period's growth factor 1+x is log normal, so x never goes below -1 */
+    public static Distribution logNormal(double mean, double stdDev) {
+        return random->exp(mean + stdDev*gaussian(random))-1;
+    }
+    /** Box-Muller, using only one of the pair so there is no state to carry between draws */
+    private static double gaussian(SplittableRandom random) {
+        double u = 1-random.nextDouble(); // (0,1] so log is finite
+        return sqrt(-2*log(u)) * cos(2*PI*random.nextDouble());
+    }
+
+    private double pv, pmt;
+    private int n, comp = 1;
+    private boolean due;
+    private Distribution r = constant(0), g = constant(0);
+    private long seed = System.nanoTime();
+    private double relativeAccuracy = .005;
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    public MonteCarlo pv(double pv) {this.pv = pv; return this;}
+    public MonteCarlo pmt(double pmt) {this.pmt = pmt; return this;}
+    /** paths are simulated a period at a time, so n is whole periods */
+    public MonteCarlo n(int n) {
+        if (n < 0) {throw new IllegalArgumentException("must be >= 0");}
+        this.n = n; return this;
+    }
+    public MonteCarlo comp(int comp) {
+        if (comp<=0) {throw new IllegalArgumentException("must be > 0");}
+        this.comp = comp; return this;
+    }
+    public MonteCarlo due(boolean due) {this.due = due; return this;}
+    public MonteCarlo r(Distribution r) {this.r = r; return this;}
+    public MonteCarlo g(Distribution g) {this.g = g; return this;}
+    public MonteCarlo seed(long seed) {this.seed = seed; return this;}
+    /** accuracy of the percentiles relative to their value */
+    public MonteCarlo relativeAccuracy(double relativeAccuracy) {this.relativeAccuracy = relativeAccuracy; return this;}
+    public MonteCarlo pool(ForkJoinPool pool) {this.pool = pool; return this;}
+
+    public Result run(long paths) {
+        if (paths <= 0) {throw new IllegalArgumentException("need at least one path");}
+        return new Result(pool.invoke(new PathsTask(0, paths, new SplittableRandom(seed))));
+    }
+
+    /** simulates paths side by side a period at a time, fv ends up in balance */
+    private void simulate(int paths, double[] balance, double[] payment, SplittableRandom random) {
+        Arrays.fill(balance, 0, paths, due ? pv+pmt : pv);
+        Arrays.fill(payment, 0, paths, pmt);
+        for (int t=0; t<n; t++) {
+            for (int p=0; p<paths; p++) {
+                double rate = r.sample(random);
+                balance[p] = balance[p]*(1+rate) + TvmKernel.compPmt(payment[p], rate, comp);
+                payment[p] *= 1+g.sample(random);
+            }
+        }
+    }
+
+    private class PathsTask extends RecursiveTask<QuantileSketch> {
+        private static final long serialVersionUID = 1L;
+        private final long from, to;
+        private final SplittableRandom random;
+        PathsTask(long from, long to, SplittableRandom random) {
+            this.from = from; this.to = to; this.random = random;
+        }
+        @Override protected QuantileSketch compute() {
+            if (to-from <= BLOCK_SIZE) {
+                QuantileSketch sketch = new QuantileSketch(relativeAccuracy);
+                int paths = (int)(to-from);
+                double[] balance = new double[paths], payment = new double[paths];
+                simulate(paths, balance, payment, random);
+                for (int p=0; p<paths; p++) {sketch.add(balance[p]);}
+                return sketch;
+            }
+            long mid = from + (to-from)/2;
+            // split before forking so the same seed gives the same draws no matter which thread runs what
+            PathsTask right = new PathsTask(mid, to, random.split());
+            right.fork();
+            return new PathsTask(from, mid, random).compute().merge(right.join());
+        }
+    }
+
+    /** the distribution of fv across all paths */
+    public static class Result {
+        private final QuantileSketch sketch;
+        Result(QuantileSketch sketch) {this.sketch = sketch;}
+        public QuantileSketch getSketch() {return sketch;}
+        public long getPaths() {return sketch.getCount() + sketch.getNanCount();}
+        public double getMean() {return sketch.getMean();}
+        public double getMin() {return sketch.getMin();}
+        public double getMax() {return sketch.getMax();}
+        /** @param percentile between 0 and 100 */
+        public double percentile(double percentile) {return sketch.quantile(percentile/100);}
+        public double[] percentiles(double ... percentiles) {
+            double[] values = new double[percentiles.length];
+            for (int i=0; i<percentiles.length; i++) {values[i] = percentile(percentiles[i]);}
+            return values;
+        }
+        public String toString() {
+            return "{paths:"+getPaths()+",mean:"+getMean()+",p5:"+percentile(5)+",p50:"+percentile(50)
+                +",p95:"+percentile(95)+"}";
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package plock.math;
+
+import static java.lang.Math.*;
+import java.util.*;
+
+/** Streaming quantiles with a relative error bound, values are counted in logarithmically sized buckets
+ *   so memory depends on the spread of the values (about 2000 buckets to cover 1 to 1e9 at 0.5%), not on
+ *   how many were added.  Any quantile comes back within relativeAccuracy of a value that was actually at
+ *   that rank.  Sketches with the same accuracy can be merged, so each thread can fill its own.
+ *   Not thread safe.
+ */
+public class QuantileSketch {
+    /** anything smaller in magnitude than this is counted as 0 */
+    private static final double MIN_INDEXABLE = Double.MIN_NORMAL;
+    /** at this accuracy the indexes from MIN_INDEXABLE to Double.MAX_VALUE are about +-3.55e8, so the range of
+     *  indexes with the slack around it still fits in an int
+     */
+    private static final double MIN_RELATIVE_ACCURACY = 1e-6;
+
+    private final double relativeAccuracy;
+    private final double gamma, logGamma;
+    private final Buckets positive = new Buckets(), negative = new Buckets();
+    private long zeros, negativeInfinities, positiveInfinities, count, nanCount;
+    private double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY, sum;
+
+    public QuantileSketch() {this(.005);}
+    public QuantileSketch(double relativeAccuracy) {
+        if (!(relativeAccuracy >= MIN_RELATIVE_ACCURACY && relativeAccuracy < 1)) {
+            throw new IllegalArgumentException("relative accuracy must be between "+MIN_RELATIVE_ACCURACY+" and 1: "+relativeAccuracy);
+        }
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1+relativeAccuracy)/(1-relativeAccuracy);
+        this.logGamma = log(gamma);
+    }
+
+    public double getRelativeAccuracy() {return relativeAccuracy;}
+    /** @return the number of values added, not counting NaN */
+    public long getCount() {return count;}
+    public long getNanCount() {return nanCount;}
+    public double getMin() {return min;}
+    public double getMax() {return max;}
+    public double getMean() {return count == 0 ? Double.NaN : sum/count;}
+
+    /** NaN is only counted, it has no rank, and the infinities are counted below or above all the buckets */
+    public QuantileSketch add(double v) {
+        if (Double.isNaN(v)) {nanCount++; return this;}
+        if (v == Double.POSITIVE_INFINITY) {positiveInfinities++;}
+        else if (v == Double.NEGATIVE_INFINITY) {negativeInfinities++;}
+        else if (v >= MIN_INDEXABLE) {positive.add(index(v), 1);}
+        else if (v <= -MIN_INDEXABLE) {negative.add(index(-v), 1);}
+        else {zeros++;}
+        count++;
+        sum += v;
+        if (v < min) {min = v;}
+        if (v > max) {max = v;}
+        return this;
+    }
+    /** adds all the values of the other sketch into this one */
+    public QuantileSketch merge(QuantileSketch o) {
+        if (o.gamma != gamma) {throw new IllegalArgumentException("cannot merge sketches with different accuracy");}
+        positive.addAll(o.positive);
+        negative.addAll(o.negative);
+        zeros += o.zeros;
+        negativeInfinities += o.negativeInfinities;
+        positiveInfinities += o.positiveInfinities;
+        count += o.count;
+        nanCount += o.nanCount;
+        sum += o.sum;
+        min = java.lang.Math.min(min, o.min);
+        max = java.lang.Math.max(max, o.max);
+        return this;
+    }
+
+    /** @param q between 0 and 1, .5 is the median
+     *  @return NaN if nothing was added
+     */
+    public double quantile(double q) {
+        if (q < 0 || q > 1) {throw new IllegalArgumentException("quantile must be between 0 and 1: "+q);}
+        if (count == 0) {return Double.NaN;}
+        long rank = (long)(q*(count-1));
+        if (rank < negativeInfinities) {return Double.NEGATIVE_INFINITY;}
+        rank -= negativeInfinities;
+        double v;
+        if (rank >= negative.total + zeros + positive.total) {
+            return Double.POSITIVE_INFINITY;
+        } else if (rank < negative.total) {
+            // negatives run from the largest magnitude up
+            v = -value(negative.indexAtRank(negative.total-1-rank));
+        } else if (rank < negative.total + zeros) {
+            v = 0;
+        } else {
+            v = value(positive.indexAtRank(rank - negative.total - zeros));
+        }
+        return java.lang.Math.max(min, java.lang.Math.min(max, v));
+    }
+    /** @return the quantile for each of qs */
+    public double[] quantiles(double ... qs) {
+        double[] values = new double[qs.length];
+        for (int i=0; i<qs.length; i++) {values[i] = quantile(qs[i]);}
+        return values;
+    }
+
+    private int index(double v) {return (int)ceil(log(v)/logGamma);}
+    /** the middle of bucket i, within relativeAccuracy of everything in it, the top bucket can be past the largest
+     *  double but a finite value never comes back infinite
+     */
+    private double value(int i) {return java.lang.Math.min(Double.MAX_VALUE, exp(i*logGamma + log(2/(gamma+1))));}
+
+    public String toString() {
+        return "{count:"+count+",min:"+min+",median:"+quantile(.5)+",max:"+max+"}";
+    }
+
+    /** counts per bucket index in a primitive array that grows to cover the indexes seen */
+    private static final class Buckets {
+        private long[] counts = new long[0];
+        private int offset; // the bucket index of counts[0]
+        private long total;
+
+        void add(int index, long c) {
+            if (counts.length == 0) {
+                counts = new long[64];
+                offset = index - 32;
+            } else if (index < offset || index >= offset+counts.length) {
+                int low = java.lang.Math.min(offset, index), high = java.lang.Math.max(offset+counts.length, index+1);
+                // leave some room beyond what is needed so growing a bucket at a time isn't quadratic
+                int slack = (high-low)/2;
+                long[] grown = new long[high-low+2*slack];
+                System.arraycopy(counts, 0, grown, offset-low+slack, counts.length);
+                counts = grown;
+                offset = low-slack;
+            }
+            counts[index-offset] += c;
+            total += c;
+        }
+        void addAll(Buckets o) {
+            for (int i=0; i<o.counts.length; i++) {
+                if (o.counts[i] != 0) {add(o.offset+i, o.counts[i]);}
+            }
+        }
+        /** @return the bucket index holding the value at the given rank, counting up from the smallest */
+        int indexAtRank(long rank) {
+            long seen = 0;
+            for (int i=0; i<counts.length; i++) {
+                seen += counts[i];
+                if (seen > rank) {return offset+i;}
+            }
+            throw new IllegalStateException("rank "+rank+" is past "+total);
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package plock.math;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import plock.math.Finance.TmvParams;
+
+/** Solves a CSV file of scenarios, one per line, and writes each line back out with its solution on the end.
+ *   Meant for files of tens of millions of rows, where making a Finance (or even a String) per row would be
+ *   what limits the throughput.  The file is split into line aligned chunks, each chunk is memory mapped and
+ *   parsed straight from the mapped bytes by a worker, and the output is formatted into direct buffers that
+ *   are reused from chunk to chunk and written in the same order as the input.
+ *   <p>
+ *   The first line names the columns, any of pv, fv, r, g, n, pmt, comp, due and solveFor in any order.  A
+ *   column that isn't there is 0 (comp is 1, due is false and solveFor is fv), and columns with other names
+ *   are carried through untouched.  Rows that can't be solved get NaN, but a comp that isn't at least 1 stops
+ *   the run with the line it was on.
+ *   <pre>
+ *   pv,fv,r,n,pmt,comp,solveFor
+ *   1000,0,.05,10,100,12,fv
+ *   0,50000,.05,10,0,12,pmt
+ *   </pre>
+ *   <pre>
+ *   long rows = new ScenarioPipeline().threads(8).run(Paths.get("in.csv"), Paths.get("out.csv"));
+ *   </pre>
+ */
+public class ScenarioPipeline {
+    private static final int MAX_CHUNK = 1<<30;
+    private static final String SOLVE_FOR = "solveFor";
+    /** column kinds past the TmvParams ordinals */
+    private static final int SOLVE_FOR_COLUMN = -1, OTHER_COLUMN = -2;
+    private static final TmvParams[] PARAMS = TmvParams.values();
+    private static final byte[][] PARAM_NAMES = new byte[PARAMS.length][];
+    static {
+        for (TmvParams p : PARAMS) {PARAM_NAMES[p.ordinal()] = p.name().getBytes(StandardCharsets.US_ASCII);}
+    }
+    private static final double[] POW10 = new double[23];
+    static {
+        POW10[0] = 1;
+        for (int i=1; i<POW10.length; i++) {POW10[i] = POW10[i-1]*10;}
+    }
+
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int chunkSize = 8<<20;
+    private int decimals = 10;
+    private Math.Solver solver;
+
+    /** how many chunks are solved at once */
+    public ScenarioPipeline threads(int threads) {
+        if (threads <= 0) {throw new IllegalArgumentException("threads must be > 0");}
+        this.threads = threads;
+        return this;
+    }
+    /** about how many bytes of input go to each worker at a time, a chunk always ends at the end of a line */
+    public ScenarioPipeline chunkSize(int chunkSize) {
+        if (chunkSize <= 0 || chunkSize > MAX_CHUNK) {throw new IllegalArgumentException("chunk size must be in (0, "+MAX_CHUNK+"]");}
+        this.chunkSize = chunkSize;
+        return this;
+    }
+    /** most digits after the decimal point in the solutions, trailing zeros are left off */
+    public ScenarioPipeline decimals(int decimals) {
+        if (decimals < 0 || decimals > 15) {throw new IllegalArgumentException("decimals must be in [0, 15]");}
+        this.decimals = decimals;
+        return this;
+    }
+    /** the solver for r, g and n (and the others when they have no direct answer), the default is TvmKernel's */
+    public ScenarioPipeline solver(Math.Solver solver) {this.solver = solver; return this;}
+
+    /** @return how many rows were solved */
+    public long run(Path in, Path out) throws IOException {
+        try (FileChannel input = FileChannel.open(in, StandardOpenOption.READ);
+                FileChannel output = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+            return run(input, output);
+        }
+    }
+    /** reads all of input from position 0, and writes to output from position 0 */
+    public long run(FileChannel input, FileChannel output) throws IOException {
+        long size = input.size();
+        ByteBuffer scan = ByteBuffer.allocate(8192);
+        long headerEnd = nextLine(input, 0, size, scan);
+        if (headerEnd == 0) {throw new IllegalArgumentException("no header line");}
+        byte[] headerBytes = new byte[(int)headerEnd];
+        readFully(input, ByteBuffer.wrap(headerBytes), 0);
+        String header = new String(headerBytes, StandardCharsets.US_ASCII).trim();
+        int[] columns = columns(header);
+        long position = writeFully(output, ByteBuffer.wrap((header+",solution\n").getBytes(StandardCharsets.US_ASCII)), 0);
+
+        // a few chunks beyond what the workers are on are queued, so the pool never waits on the writes
+        int window = threads*2;
+        BlockingQueue<ByteBuffer> buffers = new ArrayBlockingQueue<ByteBuffer>(window+threads);
+        ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "scenario-pipeline");
+            t.setDaemon(true);
+            return t;
+        });
+        Deque<Future<Chunk>> pending = new ArrayDeque<Future<Chunk>>();
+        long rows = 0;
+        try {
+            for (long start=headerEnd; start<size; ) {
+                long end = nextLine(input, java.lang.Math.min(start+chunkSize, size), size, scan);
+                if (pending.size() >= window) {
+                    Chunk chunk = take(pending.poll());
+                    position += writeFully(output, chunk.out, position);
+                    rows += chunk.rows;
+                    release(buffers, chunk.out);
+                }
+                long from = start;
+                pending.add(pool.submit(() -> solveChunk(input, from, end, columns, buffers)));
+                start = end;
+            }
+            while (!pending.isEmpty()) {
+                Chunk chunk = take(pending.poll());
+                position += writeFully(output, chunk.out, position);
+                rows += chunk.rows;
+                release(buffers, chunk.out);
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+        output.truncate(position);
+        return rows;
+    }
+
+    /** the solved lines of one chunk, flipped and ready to write */
+    private static final class Chunk {
+        final ByteBuffer out;
+        final long rows;
+        Chunk(ByteBuffer out, long rows) {this.out = out; this.rows = rows;}
+    }
+
+    private Chunk solveChunk(FileChannel input, long start, long end, int[] columns, BlockingQueue<ByteBuffer> buffers)
+            throws IOException {
+        ByteBuffer in = input.map(FileChannel.MapMode.READ_ONLY, start, end-start);
+        // a line comes back out with at most a comma, a number and a newline added to it, short lines can grow it
+        // past this but that is what ensure() is for
+        Output out = new Output(buffers.poll(), (int)java.lang.Math.min(Integer.MAX_VALUE-8, (end-start)*3/2+64));
+        ByteBuffer line = in.duplicate();
+        double[] values = new double[PARAMS.length];
+        double[] previous = new double[PARAMS.length];
+        long rows = 0;
+        int limit = in.limit();
+        for (int lineStart=0; lineStart<limit; ) {
+            int lineEnd = lineStart;
+            while (lineEnd < limit && in.get(lineEnd) != '\n') {lineEnd++;}
+            int next = lineEnd+1;
+            if (lineEnd > lineStart && in.get(lineEnd-1) == '\r') {lineEnd--;}
+            if (lineEnd > lineStart) {
+                double solution = solveLine(input, in, lineStart, lineEnd, columns, values, previous, start);
+                line.limit(lineEnd);
+                line.position(lineStart);
+                out.ensure(lineEnd-lineStart+64);
+                out.buffer.put(line);
+                out.buffer.put((byte)',');
+                writeDouble(out, solution, decimals);
+                out.buffer.put((byte)'\n');
+                rows++;
+            }
+            lineStart = next;
+        }
+        out.buffer.flip();
+        return new Chunk(out.buffer, rows);
+    }
+
+    /** parses the fields of one line into values and solves it, warm starting from the last solution for the
+     *  same parameter in the chunk
+     */
+    private double solveLine(FileChannel input, ByteBuffer in, int from, int to, int[] columns, double[] values,
+            double[] previous, long base) throws IOException {
+        Arrays.fill(values, 0);
+        values[TmvParams.comp.ordinal()] = 1;
+        TmvParams solveFor = TmvParams.fv;
+        int column = 0;
+        for (int fieldStart=from; fieldStart<=to; column++) {
+            int fieldEnd = fieldStart;
+            while (fieldEnd < to && in.get(fieldEnd) != ',') {fieldEnd++;}
+            int kind = column < columns.length ? columns[column] : OTHER_COLUMN;
+            if (kind == SOLVE_FOR_COLUMN) {
+                solveFor = param(in, fieldStart, fieldEnd, base);
+            } else if (kind == TmvParams.due.ordinal()) {
+                values[kind] = parseBoolean(in, fieldStart, fieldEnd) ? 1 : 0;
+            } else if (kind >= 0) {
+                values[kind] = parseDouble(in, fieldStart, fieldEnd, base);
+            }
+            fieldStart = fieldEnd+1;
+        }
+        double comp = values[TmvParams.comp.ordinal()];
+        if (!(comp >= 1)) {
+            throw new IllegalArgumentException("comp must be at least 1, not "+comp+" on line "+lineNumber(input, base+from));
+        }
+        int p = solveFor.ordinal();
+        double guess = Double.isFinite(previous[p]) ? previous[p] : 0;
+        double solution;
+        try {
+            solution = TvmKernel.solve(solver != null ? solver : TvmKernel.defaultSolver(solveFor), guess, solveFor,
+                values[TmvParams.pv.ordinal()], values[TmvParams.fv.ordinal()], values[TmvParams.r.ordinal()],
+                values[TmvParams.g.ordinal()], values[TmvParams.n.ordinal()], values[TmvParams.pmt.ordinal()],
+                (int)comp, values[TmvParams.due.ordinal()] != 0);
+        } catch (IllegalArgumentException e) {
+            solution = Double.NaN;
+        }
+        previous[p] = solution;
+        return solution;
+    }
+
+    private static int[] columns(String header) {
+        String[] names = header.split(",", -1);
+        int[] columns = new int[names.length];
+        boolean[] seen = new boolean[PARAMS.length+1];
+        for (int i=0; i<names.length; i++) {
+            String name = names[i].trim();
+            columns[i] = OTHER_COLUMN;
+            if (name.equals(SOLVE_FOR)) {
+                columns[i] = SOLVE_FOR_COLUMN;
+            } else {
+                for (TmvParams p : PARAMS) {
+                    if (p.name().equals(name)) {columns[i] = p.ordinal();}
+                }
+            }
+            if (columns[i] == OTHER_COLUMN) {continue;}
+            int index = columns[i] == SOLVE_FOR_COLUMN ? PARAMS.length : columns[i];
+            if (seen[index]) {throw new IllegalArgumentException("more than one "+name+" column");}
+            seen[index] = true;
+        }
+        return columns;
+    }
+
+    /** the TmvParams named by the bytes in [from, to), compared without making a String */
+    private static TmvParams param(ByteBuffer in, int from, int to, long base) {
+        while (from < to && in.get(from) == ' ') {from++;}
+        while (to > from && in.get(to-1) == ' ') {to--;}
+        if (from == to) {return TmvParams.fv;}
+        search: for (TmvParams p : PARAMS) {
+            byte[] name = PARAM_NAMES[p.ordinal()];
+            if (name.length != to-from) {continue;}
+            for (int i=0; i<name.length; i++) {
+                if (in.get(from+i) != name[i]) {continue search;}
+            }
+            return p;
+        }
+        throw new IllegalArgumentException("no parameter named "+ascii(in, from, to)+" at byte "+(base+from));
+    }
+    private static boolean parseBoolean(ByteBuffer in, int from, int to) {
+        while (from < to && in.get(from) == ' ') {from++;}
+        if (from == to) {return false;}
+        byte b = in.get(from);
+        return b == '1' || b == 't' || b == 'T';
+    }
+
+    /** parses a decimal number from the bytes in [from, to), an empty field is 0.  Up to 15 significant digits
+     *  with a power of ten up to 22 is exact as a double, so the mantissa times (or over) the power is correctly
+     *  rounded, anything longer goes through Double.parseDouble
+     */
+    static double parseDouble(ByteBuffer in, int from, int to, long base) {
+        while (from < to && in.get(from) == ' ') {from++;}
+        while (to > from && in.get(to-1) == ' ') {to--;}
+        if (from == to) {return 0;}
+        int i = from;
+        boolean negative = false;
+        byte b = in.get(i);
+        if (b == '-' || b == '+') {
+            negative = b == '-';
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0, exponent = 0;
+        boolean any = false, point = false;
+        for (; i<to; i++) {
+            b = in.get(i);
+            if (b >= '0' && b <= '9') {
+                any = true;
+                if (mantissa == 0 && b == '0') {
+                    if (point) {exponent--;}
+                    continue;
+                }
+                if (digits < 18) {
+                    mantissa = mantissa*10 + (b-'0');
+                    digits++;
+                    if (point) {exponent--;}
+                } else {
+                    digits++;
+                    if (!point) {exponent++;}
+                }
+            } else if (b == '.' && !point) {
+                point = true;
+            } else {
+                break;
+            }
+        }
+        if (i < to && (b == 'e' || b == 'E') && any) {
+            int j = i+1, sign = 1, e = 0;
+            if (j < to && (in.get(j) == '-' || in.get(j) == '+')) {sign = in.get(j++) == '-' ? -1 : 1;}
+            if (j == to) {throw notANumber(in, from, to, base);}
+            for (; j<to; j++) {
+                byte d = in.get(j);
+                if (d < '0' || d > '9') {throw notANumber(in, from, to, base);}
+                if (e < 100000) {e = e*10 + (d-'0');}
+            }
+            exponent += sign*e;
+            i = to;
+        }
+        if (i != to || !any) {
+            // NaN, Infinity and the like
+            try {
+                return Double.parseDouble(ascii(in, from, to));
+            } catch (NumberFormatException e) {
+                throw notANumber(in, from, to, base);
+            }
+        }
+        if (digits > 15 || exponent < -22 || exponent > 22) {return Double.parseDouble(ascii(in, from, to));}
+        double value = exponent < 0 ? mantissa/POW10[-exponent] : mantissa*POW10[exponent];
+        return negative ? -value : value;
+    }
+    private static IllegalArgumentException notANumber(ByteBuffer in, int from, int to, long base) {
+        return new IllegalArgumentException("not a number: "+ascii(in, from, to)+" at byte "+(base+from));
+    }
+    private static String ascii(ByteBuffer in, int from, int to) {
+        byte[] bytes = new byte[to-from];
+        for (int i=0; i<bytes.length; i++) {bytes[i] = in.get(from+i);}
+        return new String(bytes, StandardCharsets.US_ASCII);
+    }
+
+    /** writes x with at most decimals digits after the point, without going through a String unless x is too
+     *  big for that many decimals to fit in a long
+     */
+    static void writeDouble(Output out, double x, int decimals) {
+        double scale = POW10[decimals];
+        if (!Double.isFinite(x) || java.lang.Math.abs(x)*scale >= 9e18) {
+            byte[] bytes = Double.toString(x).getBytes(StandardCharsets.US_ASCII);
+            out.ensure(bytes.length);
+            out.buffer.put(bytes);
+            return;
+        }
+        long scaled = java.lang.Math.round(java.lang.Math.abs(x)*scale), unit = (long)scale;
+        long whole = scaled/unit, fraction = scaled%unit;
+        if (x < 0 && scaled != 0) {out.buffer.put((byte)'-');}
+        writeDigits(out, whole, 1);
+        if (fraction == 0) {return;}
+        int places = decimals;
+        while (fraction%10 == 0) {
+            fraction /= 10;
+            places--;
+        }
+        out.buffer.put((byte)'.');
+        writeDigits(out, fraction, places);
+    }
+    /** writes v zero padded to at least width digits */
+    private static void writeDigits(Output out, long v, int width) {
+        byte[] digits = out.digits;
+        int i = digits.length;
+        do {
+            digits[--i] = (byte)('0' + v%10);
+            v /= 10;
+        } while (v > 0);
+        while (digits.length-i < width) {digits[--i] = '0';}
+        out.buffer.put(digits, i, digits.length-i);
+    }
+
+    /** a direct output buffer that grows if a chunk turns out to need more room than was guessed */
+    static final class Output {
+        ByteBuffer buffer;
+        final byte[] digits = new byte[20];
+        Output(ByteBuffer reused, int capacity) {
+            buffer = reused != null && reused.capacity() >= capacity ? reused : ByteBuffer.allocateDirect(capacity);
+            buffer.clear();
+        }
+        void ensure(int bytes) {
+            if (buffer.remaining() >= bytes) {return;}
+            ByteBuffer bigger = ByteBuffer.allocateDirect(java.lang.Math.max(buffer.capacity()*2, buffer.position()+bytes));
+            buffer.flip();
+            bigger.put(buffer);
+            buffer = bigger;
+        }
+    }
+
+    private static void release(BlockingQueue<ByteBuffer> buffers, ByteBuffer buffer) {
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+    private static Chunk take(Future<Chunk> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted waiting on a chunk");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {throw (IOException)cause;}
+            if (cause instanceof RuntimeException) {throw (RuntimeException)cause;}
+            throw new IOException(cause);
+        }
+    }
+    /** @return the position just past the next newline at or after from, or size if there isn't one */
+    private static long nextLine(FileChannel input, long from, long size, ByteBuffer scan) throws IOException {
+        for (long position=from; position<size; ) {
+            scan.clear();
+            int read = input.read(scan, position);
+            if (read <= 0) {break;}
+            for (int i=0; i<read; i++) {
+                if (scan.get(i) == '\n') {return position+i+1;}
+            }
+            position += read;
+        }
+        return size;
+    }
+    /** @return the line holding position counting the header as line 1, only for errors since it reads everything
+     *   before position
+     */
+    private static long lineNumber(FileChannel input, long position) throws IOException {
+        ByteBuffer scan = ByteBuffer.allocate(8192);
+        long line = 1;
+        for (long at=0; at<position; ) {
+            scan.clear();
+            scan.limit((int)java.lang.Math.min(scan.capacity(), position-at));
+            int read = input.read(scan, at);
+            if (read <= 0) {break;}
+            for (int i=0; i<read; i++) {
+                if (scan.get(i) == '\n') {line++;}
+            }
+            at += read;
+        }
+        return line;
+    }
+    private static void readFully(FileChannel input, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = input.read(buffer, position);
+            if (read < 0) {throw new EOFException("file got shorter at "+position);}
+            position += read;
+        }
+    }
+    /** @return how many bytes were written */
+    private static long writeFully(FileChannel output, ByteBuffer buffer, long position) throws IOException {
+        long written = 0;
+        while (buffer.hasRemaining()) {written += output.write(buffer, position+written);}
+        return written;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.out.println("Usage: java plock.math.ScenarioPipeline <in.csv> <out.csv> [threads]");
+            return;
+        }
+        ScenarioPipeline pipeline = new ScenarioPipeline();
+        if (args.length > 2) {pipeline.threads(Integer.parseInt(args[2]));}
+        long start = System.currentTimeMillis();
+        long rows = pipeline.run(Paths.get(args[0]), Paths.get(args[1]));
+        System.out.println(rows+" rows in "+(System.currentTimeMillis()-start)+"ms");
+    }
+}
@@ -0,0 +1,125 @@
+package plock.math;
+
+import java.util.*;
+import java.util.function.*;
+import java.util.stream.*;
+import plock.math.Finance.TmvParams;
+
+/** The period by period balances behind a Finance fv, generated lazily so long horizons over many accounts
+ *   can be streamed out without building a list.  Same conventions as Finance, every period the balance
+ *   earns r, and pmt is paid "comp" times within the period compounding at the rate that gives r, and the
+ *   payment grows by g from one period to the next.  When due, the first payment is made up front and is
+ *   part of the opening balance.  Only whole periods are generated, a fractional part of n is dropped.
+ *   <pre>
+ *   Schedule.Cursor c = Schedule.of(finance).cursor();
+ *   while (c.next()) { out.println(c.getPeriod()+","+c.getInterest()+","+c.getBalance()); }
+ *   </pre>
+ */
+public class Schedule implements Iterable<Schedule.Period> {
+    private final double pv, r, g, pmt;
+    private final int periods, comp;
+    private final boolean due;
+
+    public Schedule(double pv, double r, double g, double n, double pmt, int comp, boolean due) {
+        if (comp<=0) {throw new IllegalArgumentException("must be > 0");}
+        if (n<0) {throw new IllegalArgumentException("n must be >= 0");}
+        this.pv = pv; this.r = r; this.g = g; this.pmt = pmt; this.comp = comp; this.due = due;
+        this.periods = (int)n;
+    }
+    /** takes the current values of the finance, including whatever it is solving for */
+    public static Schedule of(Finance f) {
+        return new Schedule(f.getDouble(TmvParams.pv), f.getDouble(TmvParams.r), f.getDouble(TmvParams.g),
+            f.getDouble(TmvParams.n), f.getDouble(TmvParams.pmt), ((Number)f.get(TmvParams.comp)).intValue(),
+            (Boolean)f.get(TmvParams.due));
+    }
+
+    public int getPeriods() {return periods;}
+    /** @return the balance before the first period */
+    public double getOpeningBalance() {return due ? pv+pmt : pv;}
+    /** @return the balance at the end of the given period, 0 is the opening balance */
+    public double balanceAt(int period) {
+        return TvmKernel.fv(getOpeningBalance(), r, g, period, pmt, comp, false);
+    }
+
+    /** a single mutable row that is advanced through the periods, nothing is allocated per period */
+    public Cursor cursor() {return new Cursor(0, periods);}
+    public Spliterator<Period> spliterator() {return new PeriodSpliterator(0, periods);}
+    public Iterator<Period> iterator() {return Spliterators.iterator(spliterator());}
+    public Stream<Period> stream() {return StreamSupport.stream(spliterator(), false);}
+    /** periods can be computed from any point, so this splits for parallel use */
+    public Stream<Period> parallelStream() {return StreamSupport.stream(spliterator(), true);}
+
+    public class Cursor {
+        private final int end;
+        private final double compPmtFactor = TvmKernel.compPmt(1, r, comp);
+        private int period;
+        private double payment, startBalance, deposits, interest, balance;
+        /** positioned before period from+1 */
+        private Cursor(int from, int end) {
+            this.end = end;
+            this.period = from;
+            this.balance = balanceAt(from);
+            this.payment = pmt*java.lang.Math.pow(1+g, from);
+        }
+        /** @return false when there are no more periods */
+        public boolean next() {
+            if (period >= end) {return false;}
+            period++;
+            startBalance = balance;
+            deposits = payment*comp;
+            balance = startBalance*(1+r) + payment*compPmtFactor;
+            interest = balance - startBalance - deposits;
+            payment *= 1+g;
+            return true;
+        }
+        /** starts at 1 for the first period */
+        public int getPeriod() {return period;}
+        public double getStartBalance() {return startBalance;}
+        /** @return all of the payments made during the period */
+        public double getDeposits() {return deposits;}
+        /** @return interest on the starting balance and on the payments made during the period */
+        public double getInterest() {return interest;}
+        public double getBalance() {return balance;}
+        public Period toPeriod() {return new Period(period, startBalance, deposits, interest, balance);}
+    }
+
+    /** one row of the schedule */
+    public static final class Period {
+        private final int period;
+        private final double startBalance, deposits, interest, balance;
+        public Period(int period, double startBalance, double deposits, double interest, double balance) {
+            this.period = period; this.startBalance = startBalance; this.deposits = deposits;
+            this.interest = interest; this.balance = balance;
+        }
+        public int getPeriod() {return period;}
+        public double getStartBalance() {return startBalance;}
+        public double getDeposits() {return deposits;}
+        public double getInterest() {return interest;}
+        public double getBalance() {return balance;}
+        public String toString() {return "{period:"+period+",start:"+startBalance+",deposits:"+deposits
+            +",interest:"+interest+",balance:"+balance+"}";}
+    }
+
+    private class PeriodSpliterator implements Spliterator<Period> {
+        private int from;
+        private final int end;
+        private Cursor cursor;
+        PeriodSpliterator(int from, int end) {this.from = from; this.end = end;}
+        @Override public boolean tryAdvance(Consumer<? super Period> action) {
+            if (cursor == null) {cursor = new Cursor(from, end);}
+            if (!cursor.next()) {return false;}
+            action.accept(cursor.toPeriod());
+            return true;
+        }
+        @Override public Spliterator<Period> trySplit() {
+            if (cursor != null || end-from < 2) {return null;}
+            // the balance at any period has a closed form, so the second half can start right away
+            int mid = from + (end-from)/2;
+            Spliterator<Period> firstHalf = new PeriodSpliterator(from, mid);
+            from = mid;
+            return firstHalf;
+        }
+        @Override public long estimateSize() {return cursor == null ? end-from : end-cursor.getPeriod();}
+        @Override public int characteristics() {return ORDERED|SIZED|SUBSIZED|NONNULL|IMMUTABLE;}
+    }
+}
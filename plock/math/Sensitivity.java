@@ -0,0 +1,149 @@
+package plock.math;
+
+import static java.lang.Math.*;
+
+/** fv (or pv) along with its partial derivatives, worked out analytically instead of bumping each parameter
+ *   and solving again, so a whole gradient costs about what a couple of solves do.  Same conventions as
+ *   TvmKernel, fv = (pv + pmt if due)*(1+r)^n + pmt*k*A where k is what the "comp" payments within a period add
+ *   up to by the end of it and A is the growing annuity factor, and pv is that solved for pv with fv held.
+ *   A Sensitivity is reused for each calculation, so a loop over many plans allocates nothing.
+ *   <pre>
+ *   Sensitivity s = new Sensitivity();
+ *   for (int i=0; i&lt;plans; i++) {
+ *       s.pv(fv[i], r[i], g[i], n[i], pmt[i], 12, false);
+ *       duration[i] = s.getModifiedDuration();
+ *   }
+ *   </pre>
+ */
+public final class Sensitivity {
+    /** below this |n*(r-g)/(1+g)|, A and its derivatives are summed as a series since the closed forms cancel */
+    private static final double SERIES_LIMIT = .05;
+    private static final int SERIES_TERMS = 12;
+
+    private double value, dr, dg, dn, dpv, dfv, dpmt, drr, r;
+    // k and A with their derivatives from the last calculation
+    private double k, kR, kRR, a, aR, aG, aN, aRR;
+
+    /** fills in fv and how it changes with each of the inputs
+     * @return this
+     */
+    public Sensitivity fv(double pv, double r, double g, double n, double pmt, int comp, boolean due) {
+        factors(r, g, n, comp);
+        double u = 1+r, f = pow(u,n), p = due ? pv+pmt : pv;
+        this.r = r;
+        value = p*f + pmt*k*a;
+        dr = p*n*f/u + pmt*(kR*a + k*aR);
+        dg = pmt*k*aG;
+        dn = p*f*log(u) + pmt*k*aN;
+        dpv = f;
+        dfv = 0;
+        dpmt = (due ? f : 0) + k*a;
+        drr = p*n*(n-1)*f/(u*u) + pmt*(kRR*a + 2*kR*aR + k*aRR);
+        return this;
+    }
+    /** fills in pv (solved with fv held) and how it changes with each of the inputs
+     * @return this
+     */
+    public Sensitivity pv(double fv, double r, double g, double n, double pmt, int comp, boolean due) {
+        factors(r, g, n, comp);
+        double u = 1+r, f = pow(u,n);
+        // pv = q/f (less pmt when due) where q is what is left of fv after the payments
+        double q = fv - pmt*k*a, qR = -pmt*(kR*a + k*aR), qRR = -pmt*(kRR*a + 2*kR*aR + k*aRR);
+        this.r = r;
+        value = q/f - (due ? pmt : 0);
+        dr = (qR - q*n/u)/f;
+        dg = -pmt*k*aG/f;
+        dn = (-pmt*k*aN - q*log(u))/f;
+        dpv = 0;
+        dfv = 1/f;
+        dpmt = -k*a/f - (due ? 1 : 0);
+        drr = (qRR - 2*qR*n/u + q*n*(n+1)/(u*u))/f;
+        return this;
+    }
+
+    public double getValue() {return value;}
+    public double getDr() {return dr;}
+    public double getDg() {return dg;}
+    public double getDn() {return dn;}
+    /** 0 when the value is pv */
+    public double getDpv() {return dpv;}
+    /** 0 when the value is fv */
+    public double getDfv() {return dfv;}
+    public double getDpmt() {return dpmt;}
+    /** the second derivative with respect to r */
+    public double getDrr() {return drr;}
+    /** -(d value/dr)/value, for pv this is the usual modified duration */
+    public double getModifiedDuration() {return -dr/value;}
+    public double getMacaulayDuration() {return getModifiedDuration()*(1+r);}
+    /** (d^2 value/dr^2)/value */
+    public double getConvexity() {return drr/value;}
+
+    private void factors(double r, double g, double n, int comp) {
+        if (comp<=0) {throw new IllegalArgumentException("must be > 0");}
+        compFactor(r, comp);
+        annuityFactor(r, g, n);
+    }
+    /** k = ((1+c)^comp-1)/c for the rate c that compounds to r, which is also the sum of (1+r)^(j/comp) for j
+     *  from 0 to comp-1, summed that way so r of 0 needs nothing special
+     */
+    private void compFactor(double r, int comp) {
+        double u = 1+r, step = pow(u, 1.0/comp), term = 1;
+        k = kR = kRR = 0;
+        for (int j=0; j<comp; j++) {
+            double e = (double)j/comp;
+            k += term;
+            kR += e*term;
+            kRR += e*(e-1)*term;
+            term *= step;
+        }
+        kR /= u;
+        kRR /= u*u;
+    }
+    /** A = ((1+r)^n - (1+g)^n)/(r-g) along with dA/dr, dA/dg, dA/dn and d^2A/dr^2 */
+    private void annuityFactor(double r, double g, double n) {
+        double u = 1+r, v = 1+g, d = r-g;
+        if (abs(n*d/v) >= SERIES_LIMIT && abs(n*d/u) >= SERIES_LIMIT) {
+            double fu = pow(u,n), fv = pow(v,n);
+            a = TvmKernel.growingAnnuityFactor(r, g, n);
+            aR = (n*fu/u - a)/d;
+            aG = (a - n*fv/v)/d;
+            aN = (fu*log(u) - fv*log(v))/d;
+            aRR = (n*(n-1)*fu/(u*u) - 2*aR)/d;
+            return;
+        }
+        // A = (1+g)^(n-1) * sum of n(n-1)..(n-j) y^j/(j+1)! with y = (r-g)/(1+g), and the same about r for dA/dg
+        double y = d/v, base = pow(v,n-1), product = n, dProduct = 1, factorial = 1;
+        double power = 1, power1 = 0, power2 = 0; // y^j, y^(j-1) and y^(j-2), 0 until j gets there
+        double sum = 0, sumR = 0, sumRR = 0, sumN = 0;
+        for (int j=0; j<SERIES_TERMS; j++) {
+            factorial *= j+1;
+            double c = product/factorial;
+            sum += c*power;
+            sumR += j*c*power1;
+            sumRR += j*(j-1)*c*power2;
+            sumN += dProduct/factorial*power;
+            dProduct = dProduct*(n-j-1) + product;
+            product *= n-j-1;
+            power2 = power1;
+            power1 = power;
+            power *= y;
+        }
+        a = base*sum;
+        aR = base*sumR/v;
+        aRR = base*sumRR/(v*v);
+        aN = a*log(v) + base*sumN;
+        aG = annuitySeriesDr(v, u, n);
+    }
+    /** dA/dr by the series, A is symmetric in r and g so this gives dA/dg with them swapped */
+    private static double annuitySeriesDr(double u, double v, double n) {
+        // with r and g swapped, u is 1+r and v is 1+g in terms of the swapped A
+        double y = (u-v)/v, product = n*(n-1), factorial = 2, power = 1, sum = 0;
+        for (int j=1; j<SERIES_TERMS; j++) {
+            sum += j*product/factorial*power;
+            product *= n-j-1;
+            factorial *= j+2;
+            power *= y;
+        }
+        return pow(v,n-1)*sum/v;
+    }
+}
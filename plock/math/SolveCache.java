@@ -0,0 +1,101 @@
+package plock.math;
+
+import java.util.*;
+import plock.math.Finance.TmvParams;
+
+/** A size bounded, least recently used cache of TvmKernel solutions keyed on the whole parameter tuple,
+ *   mostly worth it for the iterative r, n and g solves.  Safe to share between threads and between
+ *   Finance instances (see Finance.solveCache()).  The solve itself runs outside the lock, so two threads
+ *   missing on the same tuple at once may both solve it.  Failed solves are not cached.
+ */
+public class SolveCache {
+    private final int maxSize;
+    private long hits, misses, evictions;
+    private final Map<Key,Double> map;
+
+    public SolveCache(int maxSize) {
+        if (maxSize <= 0) {throw new IllegalArgumentException("max size must be > 0");}
+        this.maxSize = maxSize;
+        this.map = new LinkedHashMap<Key,Double>(16, .75f, true) {
+            @Override protected boolean removeEldestEntry(Map.Entry<Key,Double> eldest) {
+                if (size() <= SolveCache.this.maxSize) {return false;}
+                evictions++;
+                return true;
+            }
+        };
+    }
+
+    /** same as TvmKernel.solve(), but looks for the answer in the cache first */
+    public double solve(TmvParams solveFor, double pv, double fv, double r, double g, double n,
+            double pmt, int comp, boolean due) {
+        return solve(TvmKernel.defaultSolver(solveFor), solveFor, pv, fv, r, g, n, pmt, comp, due);
+    }
+    /** the solver isn't part of the key, any solver's answer is taken to be good enough for the others */
+    public double solve(Math.Solver solver, TmvParams solveFor, double pv, double fv, double r, double g, double n,
+            double pmt, int comp, boolean due) {
+        Key key = new Key(solveFor, pv, fv, r, g, n, pmt, comp, due);
+        synchronized(map) {
+            Double cached = map.get(key);
+            if (cached != null) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        double solution = TvmKernel.solve(solver, solveFor, pv, fv, r, g, n, pmt, comp, due);
+        synchronized(map) {
+            map.put(key, solution);
+        }
+        return solution;
+    }
+
+    public int getMaxSize() {return maxSize;}
+    public int size() {synchronized(map) {return map.size();}}
+    public long getHits() {synchronized(map) {return hits;}}
+    public long getMisses() {synchronized(map) {return misses;}}
+    public long getEvictions() {synchronized(map) {return evictions;}}
+    /** drops the cached solutions, but not the counters */
+    public void clear() {synchronized(map) {map.clear();}}
+    public String toString() {
+        synchronized(map) {
+            return "{size:"+map.size()+",max:"+maxSize+",hits:"+hits+",misses:"+misses+",evictions:"+evictions+"}";
+        }
+    }
+
+    /** the parameter tuple, the value for what is being solved for is ignored by the solve so it is left out */
+    private static final class Key {
+        private final double pv, fv, r, g, n, pmt;
+        private final int comp;
+        private final boolean due;
+        private final TmvParams solveFor;
+        private final int hash;
+        Key(TmvParams solveFor, double pv, double fv, double r, double g, double n, double pmt, int comp, boolean due) {
+            this.solveFor = solveFor;
+            this.pv = solveFor == TmvParams.pv ? 0 : pv;
+            this.fv = solveFor == TmvParams.fv ? 0 : fv;
+            this.r = solveFor == TmvParams.r ? 0 : r;
+            this.g = solveFor == TmvParams.g ? 0 : g;
+            this.n = solveFor == TmvParams.n ? 0 : n;
+            this.pmt = solveFor == TmvParams.pmt || solveFor == TmvParams.comp_pmt ? 0 : pmt;
+            this.comp = comp;
+            this.due = due;
+            int h = solveFor.ordinal();
+            h = 31*h + Double.hashCode(this.pv);
+            h = 31*h + Double.hashCode(this.fv);
+            h = 31*h + Double.hashCode(this.r);
+            h = 31*h + Double.hashCode(this.g);
+            h = 31*h + Double.hashCode(this.n);
+            h = 31*h + Double.hashCode(this.pmt);
+            h = 31*h + comp;
+            this.hash = 31*h + (due ? 1 : 0);
+        }
+        @Override public int hashCode() {return hash;}
+        @Override public boolean equals(Object o) {
+            if (!(o instanceof Key)) {return false;}
+            Key k = (Key)o;
+            return hash == k.hash && solveFor == k.solveFor && comp == k.comp && due == k.due
+                && same(pv, k.pv) && same(fv, k.fv) && same(r, k.r) && same(g, k.g) && same(n, k.n) && same(pmt, k.pmt);
+        }
+        private static boolean same(double a, double b) {return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);}
+    }
+}
@@ -0,0 +1,180 @@
+package plock.math;
+
+import java.util.*;
+import java.util.concurrent.*;
+import plock.math.Finance.TmvParams;
+
+/** Solves many scenarios at once, each parameter is a column (struct of arrays) and row i of every column
+ *   is one scenario.  Columns that are not given are 0 (comp is 1 and due is false), the column for the
+ *   parameter being solved for is ignored.  Nothing is allocated per row, and the fv, pv, pmt and comp_pmt
+ *   loops are straight calls into TvmKernel that the JIT will inline, fv and pv through TvmVector so that on
+ *   Java 17 and up they can run across vector lanes (see TvmVector).
+ *   <pre>
+ *   double[] out = new TvmBatch(pv.length).pv(pv).r(r).n(n).pmt(pmt).comp(comp).solve(new double[pv.length]);
+ *   </pre>
+ *   Rows that have to be iterated (r, g and n) start from the row's guess if one was
+ *   given, or else from the solution of the row before, so sorted or clustered rows are bracketed in a step
+ *   or two instead of searching out from 0 every time.
+ *   <pre>
+ *   double[] apr = new TvmBatch(pv.length).pv(pv).fv(fv).n(n).pmt(pmt).solveFor(TmvParams.r)
+ *       .solve(new double[pv.length], ForkJoinPool.commonPool());
+ *   </pre>
+ *   A batch can be reused for another set of columns of the same size, but it is not safe to share across
+ *   threads while columns are being set, solve() by itself only reads the columns.
+ */
+public class TvmBatch {
+    /** rows per fork/join leaf, the first row of each leaf starts cold unless it has a guess */
+    private static final int LEAF_SIZE = 1024;
+
+    private final int size;
+    private final double[] zeros;
+    private double[] pv, fv, r, g, n, pmt;
+    private int[] comp;
+    private boolean[] due;
+    private double[] guess;
+    private TmvParams solveFor = TmvParams.fv;
+    private Math.Solver solver;
+
+    public TvmBatch(int size) {
+        this.size = size;
+        this.zeros = new double[size];
+        pv = fv = r = g = n = pmt = zeros;
+        comp = new int[size];
+        Arrays.fill(comp, 1);
+        due = new boolean[size];
+    }
+
+    public int size() {return size;}
+    public TvmBatch pv(double[] pv) {this.pv = column(pv); return this;}
+    public TvmBatch fv(double[] fv) {this.fv = column(fv); return this;}
+    public TvmBatch r(double[] r) {this.r = column(r); return this;}
+    public TvmBatch g(double[] g) {this.g = column(g); return this;}
+    public TvmBatch n(double[] n) {this.n = column(n); return this;}
+    public TvmBatch pmt(double[] pmt) {this.pmt = column(pmt); return this;}
+    public TvmBatch comp(int[] comp) {checkLength(comp.length); this.comp = comp; return this;}
+    public TvmBatch due(boolean[] due) {checkLength(due.length); this.due = due; return this;}
+    public TvmBatch solveFor(TmvParams solveFor) {
+        switch (solveFor) {
+            case due: case comp:
+                throw new IllegalArgumentException("cannot solve for "+solveFor);
+            default:
+        }
+        this.solveFor = solveFor;
+        return this;
+    }
+    public TmvParams getSolveFor() {return solveFor;}
+    /** where to start iterating each row, NaN (or no column at all) to start from the row before */
+    public TvmBatch guess(double[] guess) {
+        if (guess != null) {checkLength(guess.length);}
+        this.guess = guess;
+        return this;
+    }
+    /** the solver for rows that have to be iterated, null for TvmKernel.defaultSolver() */
+    public TvmBatch solver(Math.Solver solver) {this.solver = solver; return this;}
+
+    private double[] column(double[] c) {
+        if (c == null) {return zeros;}
+        checkLength(c.length);
+        return c;
+    }
+    private void checkLength(int length) {
+        if (length < size) {throw new IllegalArgumentException("column has "+length+" rows, need "+size);}
+    }
+
+    /** @return out, filled with the solution for each row */
+    public double[] solve(double[] out) {return solve(0, size, out);}
+    /** same as solve(out), but the rows are split into chunks that are solved across the pool
+     *  @return out
+     */
+    public double[] solve(double[] out, ForkJoinPool pool) {
+        checkLength(out.length);
+        pool.invoke(new SolveAction(0, size, out));
+        return out;
+    }
+    /** solves rows [from, to) into the same rows of out, rows that cannot be solved are NaN
+     *  @return out
+     */
+    public double[] solve(int from, int to, double[] out) {
+        if (from < 0 || to > size || from > to) {throw new IndexOutOfBoundsException("["+from+","+to+") of "+size);}
+        checkLength(out.length);
+        // pull the columns into locals so the loops only touch arrays
+        final double[] pv = this.pv, fv = this.fv, r = this.r, g = this.g, n = this.n, pmt = this.pmt;
+        final int[] comp = this.comp;
+        final boolean[] due = this.due;
+        switch (solveFor) {
+            case fv:
+                TvmVector.fv(pv, r, g, n, pmt, comp, due, out, from, to);
+                return out;
+            case pv:
+                TvmVector.pv(fv, r, g, n, pmt, comp, due, out, from, to);
+                for (int i=from; i<to; i++) {
+                    if (!Double.isFinite(out[i])) {out[i] = solveRow(i, i, null);}
+                }
+                return out;
+            case pmt:
+                for (int i=from; i<to; i++) {
+                    out[i] = direct(i, TvmKernel.solvePmt(pv[i], fv[i], r[i], g[i], n[i], comp[i], due[i]));
+                }
+                return out;
+            case comp_pmt:
+                for (int i=from; i<to; i++) {
+                    out[i] = direct(i, TvmKernel.solveCompPmt(pv[i], fv[i], r[i], g[i], n[i], comp[i], due[i]));
+                }
+                return out;
+            default:
+                for (int i=from; i<to; i++) {
+                    out[i] = solveRow(i, from, out);
+                }
+                return out;
+        }
+    }
+    /** fills in fv (or pv with fv held) and its derivatives for every row in a single pass, like Sensitivity,
+     *  any of the output columns can be null to skip it
+     */
+    public void sensitivity(TmvParams of, double[] value, double[] dr, double[] dg, double[] dn, double[] drr) {
+        if (of != TmvParams.fv && of != TmvParams.pv) {throw new IllegalArgumentException("only fv and pv, not "+of);}
+        for (double[] out : Arrays.asList(value, dr, dg, dn, drr)) {
+            if (out != null) {checkLength(out.length);}
+        }
+        Sensitivity s = new Sensitivity();
+        for (int i=0; i<size; i++) {
+            if (of == TmvParams.fv) {s.fv(pv[i], r[i], g[i], n[i], pmt[i], comp[i], due[i]);}
+            else {s.pv(fv[i], r[i], g[i], n[i], pmt[i], comp[i], due[i]);}
+            if (value != null) {value[i] = s.getValue();}
+            if (dr != null) {dr[i] = s.getDr();}
+            if (dg != null) {dg[i] = s.getDg();}
+            if (dn != null) {dn[i] = s.getDn();}
+            if (drr != null) {drr[i] = s.getDrr();}
+        }
+    }
+    /** a zero factor (like n of 0) leaves the direct answer undefined, so the row falls back to iterating */
+    private double direct(int i, double d) {return Double.isFinite(d) ? d : solveRow(i, i, null);}
+    /** the general (and possibly iterative) solution for a single row, warm started from the row's guess or
+     *  else from the solution already in out for the row before (as long as that row is part of this solve)
+     */
+    private double solveRow(int i, int from, double[] out) {
+        double start = guess != null && !Double.isNaN(guess[i]) ? guess[i]
+            : i > from && Double.isFinite(out[i-1]) ? out[i-1] : 0;
+        try {
+            return TvmKernel.solve(solver != null ? solver : TvmKernel.defaultSolver(solveFor), start,
+                solveFor, pv[i], fv[i], r[i], g[i], n[i], pmt[i], comp[i], due[i]);
+        } catch (IllegalArgumentException e) {
+            return Double.NaN;
+        }
+    }
+
+    private class SolveAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int from, to;
+        private final double[] out;
+        SolveAction(int from, int to, double[] out) {this.from = from; this.to = to; this.out = out;}
+        @Override protected void compute() {
+            if (to-from <= LEAF_SIZE) {
+                solve(from, to, out);
+                return;
+            }
+            int mid = from + (to-from)/2;
+            invokeAll(new SolveAction(from, mid, out), new SolveAction(mid, to, out));
+        }
+    }
+}
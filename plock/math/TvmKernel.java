@@ -0,0 +1,184 @@
+package plock.math;
+
+import static java.lang.Math.*;
+import plock.math.Finance.TmvParams;
+
+/** The time value of money math behind Finance as static functions of primitives, nothing here allocates
+ *   for fv, pv, pmt or comp_pmt so it can run headless and from any number of threads.
+ *   The conventions are the same as Finance, r and g are effective rates for a single period,
+ *   pmt is paid "comp" times across each period and compounds at the rate that gives r, and
+ *   due adds a first payment to pv.
+ */
+public final class TvmKernel {
+    private TvmKernel() {}
+
+    /** @return the rate that will be compounded "comp" times across a single period to give r */
+    public static double compRate(double r, int comp) {
+        if (comp == 1) {return r;}
+        // the monthly rate from the given effective annual rate, (1+r)^(1/comp)-1 written with expm1/log1p so
+        // that a rate near 0 keeps its digits instead of losing them to the 1+
+        return expm1(log1p(r)/comp);
+    }
+    /** @return how much a payment of 1 made "comp" times in a period is worth at the end of the period */
+    public static double paymentCompoundingFactor(double compRate, int comp) {
+        if (comp == 1) {return 1;}
+        if (compRate == 0.0) {return comp;}
+        // this is an orinary annuity for "comp" months
+        return (pow(1+compRate,comp)-1) / compRate;
+    }
+    /** @return all the payments together for a whole period with compounded interest on the payments */
+    public static double compPmt(double pmt, double r, int comp) {
+        return pmt * compPmtFactor(r, comp);
+    }
+    /** @return the payment that is made "comp" times a period to add up to compPmt */
+    public static double pmt(double compPmt, double r, int comp) {
+        return compPmt / compPmtFactor(r, comp);
+    }
+    /** paymentCompoundingFactor() for r, since (1+compRate)^comp is 1+r this only needs the one pow() */
+    private static double compPmtFactor(double r, int comp) {
+        if (comp == 1) {return 1;}
+        double compRate = compRate(r, comp);
+        if (compRate == 0.0) {return comp;}
+        return r / compRate;
+    }
+    /** @return what 1 grows to after n periods */
+    public static double rateFactor(double r, double n) {return pow(1+r,n);}
+    /** @return the future value of a payment of 1 at the end of each period that grows by g each period,
+     *    ((1+r)^n - (1+g)^n) / (r-g), and when g is the same as r, the ratio collapses to n*(1+r)^(n-1)
+     */
+    public static double growingAnnuityFactor(double r, double g, double n) {
+        if (r-g == 0) {return n*pow(1+r,n-1);}
+        // log1p needs 1+g above 0, a payment that shrinks to nothing or flips sign every period goes by the plain
+        // powers (which are only real for a whole n); a rate of -100% or less stays NaN so a solve never lands there
+        if (1+g <= 0) {return (pow(1+r,n) - pow(1+g,n)) / (r-g);}
+        // (1+r)^n - (1+g)^n = (1+g)^n * (((1+r)/(1+g))^n - 1), written with expm1/log1p so that an r and g
+        // that are only a rounding error apart (like from stepping through a range) don't cancel out to 0
+        return pow(1+g,n) * expm1(n*log1p((r-g)/(1+g))) / (r-g);
+    }
+
+    public static double fv(double pv, double r, double g, double n, double pmt, int comp, boolean due) {
+        if (due) {pv += pmt;}
+        return pv*rateFactor(r,n) + compPmt(pmt,r,comp)*growingAnnuityFactor(r,g,n);
+    }
+    /** for an ordinary annuity */
+    public static double solvePv(double fv, double r, double g, double n, double pmt, int comp) {
+        return (fv - compPmt(pmt,r,comp)*growingAnnuityFactor(r,g,n)) / rateFactor(r,n);
+    }
+    /** when due, the first payment is part of the opening balance, so it comes off of the ordinary pv */
+    public static double solvePv(double fv, double r, double g, double n, double pmt, int comp, boolean due) {
+        double pv = solvePv(fv, r, g, n, pmt, comp);
+        return due ? pv-pmt : pv;
+    }
+    /** for an ordinary annuity, solves for the whole period's payment */
+    public static double solveCompPmt(double pv, double fv, double r, double g, double n) {
+        return (fv - pv*rateFactor(r,n)) / growingAnnuityFactor(r,g,n);
+    }
+    /** when due, the first payment also grows with pv, fv = pv*F + pmt*(F + k*A) where k is compPmt(1,r,comp) */
+    public static double solveCompPmt(double pv, double fv, double r, double g, double n, int comp, boolean due) {
+        if (!due) {return solveCompPmt(pv, fv, r, g, n);}
+        double rateFactor = rateFactor(r,n);
+        return (fv - pv*rateFactor) / (rateFactor/compPmtFactor(r,comp) + growingAnnuityFactor(r,g,n));
+    }
+    /** for an ordinary annuity, solves for the whole period's payment, then takes out the compounding within the period */
+    public static double solvePmt(double pv, double fv, double r, double g, double n, int comp) {
+        return pmt(solveCompPmt(pv,fv,r,g,n), r, comp);
+    }
+    public static double solvePmt(double pv, double fv, double r, double g, double n, int comp, boolean due) {
+        if (!due) {return solvePmt(pv, fv, r, g, n, comp);}
+        double rateFactor = rateFactor(r,n);
+        return (fv - pv*rateFactor) / (rateFactor + compPmtFactor(r,comp)*growingAnnuityFactor(r,g,n));
+    }
+    public static double solveR(double pv, double fv, double g, double n, double pmt, int comp, boolean due) {
+        return iterate(TmvParams.r, pv, fv, 0, g, n, pmt, comp, due);
+    }
+    public static double solveG(double pv, double fv, double r, double n, double pmt, int comp, boolean due) {
+        return solve(TmvParams.g, pv, fv, r, 0, n, pmt, comp, due);
+    }
+    public static double solveN(double pv, double fv, double r, double g, double pmt, int comp, boolean due) {
+        return iterate(TmvParams.n, pv, fv, r, g, 0, pmt, comp, due);
+    }
+
+    /** solves to within .00001 of fv like Math.iterateSolve() did, with a first step sized for what is solved */
+    private static final Math.Solver RATE_SOLVER = new Math.Solver().step(.01);
+    private static final Math.Solver AMOUNT_SOLVER = new Math.Solver().step(1);
+    /** @return the solver used for p unless another is given, Brent's method for all of them */
+    public static Math.Solver defaultSolver(TmvParams p) {
+        switch (p) {
+            case r: case g: return RATE_SOLVER;
+            default: return AMOUNT_SOLVER;
+        }
+    }
+
+    /** the value passed in for solveFor is ignored, when solving for comp_pmt, pmt is ignored
+     * @return the solution for solveFor, pmt and comp_pmt are both in terms of the pmt passed in
+     */
+    public static double solve(TmvParams solveFor, double pv, double fv, double r, double g, double n,
+            double pmt, int comp, boolean due) {
+        return solve(defaultSolver(solveFor), solveFor, pv, fv, r, g, n, pmt, comp, due);
+    }
+    /** same as solve() but uses the given solver when there is no direct function */
+    public static double solve(Math.Solver solver, TmvParams solveFor, double pv, double fv, double r, double g, double n,
+            double pmt, int comp, boolean due) {
+        return solve(solver, 0, solveFor, pv, fv, r, g, n, pmt, comp, due);
+    }
+    /** same as solve() but when iterating starts from guess, a guess near the answer (like the answer to a
+     *  similar scenario) brackets it in a step or two */
+    public static double solve(Math.Solver solver, double guess, TmvParams solveFor, double pv, double fv, double r,
+            double g, double n, double pmt, int comp, boolean due) {
+        double direct = Double.NaN;
+        switch (solveFor) {
+            case fv:
+                return fv(pv, r, g, n, pmt, comp, due);
+            case pv:
+                direct = solvePv(fv, r, g, n, pmt, comp, due);
+                break;
+            case pmt:
+                direct = solvePmt(pv, fv, r, g, n, comp, due);
+                break;
+            case comp_pmt:
+                direct = solveCompPmt(pv, fv, r, g, n, comp, due);
+                break;
+            case g:
+                if (pmt==0.0 || n == 0.0) {
+                    throw new IllegalArgumentException("cannot solve g with no payments");
+                }
+                break;
+            case r: case n:
+                break;
+            default:
+                throw new IllegalArgumentException("not implemented for "+solveFor);
+        }
+        // a zero factor (like n of 0) leaves the direct answer undefined, iterate instead
+        if (Double.isFinite(direct)) {return direct;}
+        return iterateSolution(solver, guess, solveFor, pv, fv, r, g, n, pmt, comp, due).getXOrThrow();
+    }
+    /** finds solveFor by iterating on fv, no direct function needed */
+    public static double iterate(TmvParams solveFor, double pv, double fv, double r, double g, double n,
+            double pmt, int comp, boolean due) {
+        return iterate(defaultSolver(solveFor), solveFor, pv, fv, r, g, n, pmt, comp, due);
+    }
+    /** @throws IllegalArgumentException if the solver could not converge */
+    public static double iterate(Math.Solver solver, TmvParams solveFor, double pv, double fv, double r, double g,
+            double n, double pmt, int comp, boolean due) {
+        return iterateSolution(solver, 0, solveFor, pv, fv, r, g, n, pmt, comp, due).getXOrThrow();
+    }
+    /** @return how the solver did finding solveFor by iterating on fv, starting from guess */
+    public static Math.Solution iterateSolution(Math.Solver solver, double guess, TmvParams solveFor, double pv, double fv,
+            double r, double g, double n, double pmt, int comp, boolean due) {
+        fvWith(solveFor, guess, pv, r, g, n, pmt, comp, due); // fails fast if solveFor can't be iterated
+        return solver.solve(x->fvWith(solveFor, x, pv, r, g, n, pmt, comp, due), fv, guess);
+    }
+    /** @return fv with x used in place of the value for p */
+    static double fvWith(TmvParams p, double x, double pv, double r, double g, double n, double pmt, int comp, boolean due) {
+        switch (p) {
+            case pv: return fv(x, r, g, n, pmt, comp, due);
+            case r: return fv(pv, x, g, n, pmt, comp, due);
+            case g: return fv(pv, r, x, n, pmt, comp, due);
+            case n: return fv(pv, r, g, x, pmt, comp, due);
+            case pmt: return fv(pv, r, g, n, x, comp, due);
+            case comp_pmt: return fv(pv, r, g, n, pmt(x, r, comp), comp, due);
+            default:
+        }
+        throw new IllegalArgumentException("cannot solve for "+p+" against fv");
+    }
+}
@@ -0,0 +1,27 @@
+package plock.math;
+
+/** The fv and pv loops behind TvmBatch, over rows [from, to) of the columns.  This is the scalar version.
+ *   Built as a multi-release jar, Java 17 and up load java17/plock/math/TvmVector.java instead, which does
+ *   the same with the Vector API when the JVM was started with --add-modules jdk.incubator.vector, and
+ *   falls back to these same loops when it wasn't.
+ */
+public final class TvmVector {
+    private TvmVector() {}
+
+    /** @return true if the loops run across vector lanes */
+    public static boolean isVectorized() {return false;}
+
+    public static void fv(double[] pv, double[] r, double[] g, double[] n, double[] pmt, int[] comp, boolean[] due,
+            double[] out, int from, int to) {
+        for (int i=from; i<to; i++) {
+            out[i] = TvmKernel.fv(pv[i], r[i], g[i], n[i], pmt[i], comp[i], due[i]);
+        }
+    }
+    /** rows without a direct answer (like n of 0) come out NaN or infinite, for the caller to iterate */
+    public static void pv(double[] fv, double[] r, double[] g, double[] n, double[] pmt, int[] comp, boolean[] due,
+            double[] out, int from, int to) {
+        for (int i=from; i<to; i++) {
+            out[i] = TvmKernel.solvePv(fv[i], r[i], g[i], n[i], pmt[i], comp[i], due[i]);
+        }
+    }
+}
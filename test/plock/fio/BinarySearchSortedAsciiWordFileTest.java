@@ -0,0 +1,185 @@
+package plock.fio;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+@org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
+public class BinarySearchSortedAsciiWordFileTest {
+    private Path file;
+    @Before public void setUp() throws Exception {
+        file = Files.createTempFile("words", ".txt");
+    }
+    @After public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    /** sorted random words (some prefixes of others) with runs of different delimiters, and no newline at the end */
+    private TreeSet<String> write(int count, long seed) throws IOException {
+        Random random = new Random(seed);
+        TreeSet<String> words = new TreeSet<String>();
+        while (words.size() < count) {
+            char[] word = new char[1+random.nextInt(random.nextInt(10) == 0 ? 30 : 6)];
+            for (int i=0; i<word.length; i++) {word[i] = (char)('a'+random.nextInt(4));}
+            words.add(new String(word));
+        }
+        StringBuilder text = new StringBuilder(random.nextBoolean() ? "\n" : "");
+        for (String word : words) {
+            if (!word.equals(words.first())) {text.append(random.nextInt(5) == 0 ? " \r\n\t" : "\n");}
+            text.append(random.nextBoolean() ? word.toUpperCase() : word);
+        }
+        Files.write(file, text.toString().getBytes(StandardCharsets.US_ASCII));
+        return words;
+    }
+    private static void assertFinds(NavigableSet<String> words, BinarySearchSortedAsciiWordFile search, long seed) {
+        Random random = new Random(seed);
+        for (String word : words) {assertEquals(word, true, search.find(word));}
+        for (int i=0; i<2000; i++) {
+            char[] word = new char[1+random.nextInt(8)];
+            for (int j=0; j<word.length; j++) {word[j] = (char)('a'+random.nextInt(5));}
+            String query = new String(word);
+            assertEquals(query, words.contains(query), search.find(query));
+        }
+        assertEquals(false, search.find(""));
+
+        // half of them there, some repeated, some empty
+        List<String> all = new ArrayList<String>(words), batch = new ArrayList<String>();
+        for (int i=0, size=random.nextInt(3000); i<size; i++) {
+            if (random.nextBoolean()) {
+                batch.add(all.get(random.nextInt(all.size())));
+            } else {
+                char[] word = new char[random.nextInt(8)];
+                for (int j=0; j<word.length; j++) {word[j] = (char)('a'+random.nextInt(5));}
+                batch.add(random.nextBoolean() ? new String(word) : new String(word).toUpperCase());
+            }
+        }
+        boolean[] found = search.findAll(batch);
+        for (int i=0; i<batch.size(); i++) {assertEquals(batch.get(i), search.find(batch.get(i)), found[i]);}
+
+        for (int i=0; i<200; i++) {
+            String from = batch.isEmpty() ? "" : batch.get(random.nextInt(batch.size()));
+            String prefix = from.substring(0, random.nextInt(from.length()+1)), to = from+"c";
+            int limit = random.nextInt(10) == 0 ? Integer.MAX_VALUE : random.nextInt(20);
+            assertEquals(prefix, expected(words.subSet(prefix.toLowerCase(), true, prefix.toLowerCase()+'\uffff', false), limit),
+                lower(search.startingWith(prefix, limit)));
+            assertEquals(from+" to "+to, expected(words.subSet(from.toLowerCase(), to.toLowerCase()), limit),
+                lower(search.range(from, to, limit)));
+            assertEquals(from, expected(words.tailSet(from.toLowerCase()), limit), lower(search.range(from, null, limit)));
+        }
+    }
+    private static List<String> expected(SortedSet<String> words, int limit) {
+        List<String> expected = new ArrayList<String>();
+        for (String word : words) {
+            if (expected.size() == limit) {break;}
+            expected.add(word);
+        }
+        return expected;
+    }
+    private static List<String> lower(List<String> words) {
+        List<String> lower = new ArrayList<String>();
+        for (String word : words) {lower.add(word.toLowerCase());}
+        return lower;
+    }
+
+    @Test public void testFind() throws IOException {
+        for (int seed=0; seed<20; seed++) {
+            TreeSet<String> words = write(1+seed*seed*10, seed);
+            assertFinds(words, new BinarySearchSortedAsciiWordFile(file.toFile()), seed);
+            assertFinds(words, BinarySearchSortedAsciiWordFile.map(file.toFile()), seed);
+            try (BinarySearchSortedAsciiWordFile search = BinarySearchSortedAsciiWordFile.open(file.toFile())) {
+                assertFinds(words, search, seed);
+                assertFinds(words, search.index(1+seed%5), seed);
+            }
+            assertFinds(words, new BinarySearchSortedAsciiWordFile(file.toFile()).index(3), seed);
+            assertEquals(true, new BinarySearchSortedAsciiWordFile(file.toFile()).find(words.last().toUpperCase()));
+        }
+        Files.write(file, new byte[0]);
+        assertEquals(false, BinarySearchSortedAsciiWordFile.map(file.toFile()).find("a"));
+        assertNull(new BinarySearchSortedAsciiWordFile(new File(file+".missing")).find("a"));
+    }
+    @Test public void testOpenFromThreads() throws Exception {
+        final TreeSet<String> words = write(20000, 1);
+        final BinarySearchSortedAsciiWordFile search = BinarySearchSortedAsciiWordFile.open(file.toFile());
+        List<Thread> threads = new ArrayList<Thread>();
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        for (int i=0; i<4; i++) {
+            final int seed = i;
+            threads.add(new Thread(() -> {
+                try {
+                    assertFinds(words, search, seed);
+                } catch (Throwable t) {
+                    failures.add(t);
+                }
+            }));
+        }
+        for (Thread thread : threads) {thread.start();}
+        // an interrupt closes the channel underneath the others, which should only fail the interrupted find
+        threads.get(0).interrupt();
+        for (Thread thread : threads) {thread.join();}
+        assertTrue(failures.toString(), failures.size() <= 1);
+        for (Throwable failure : failures) {assertTrue(failure.getMessage(), failure.getMessage().contains("<null>"));}
+        assertEquals(true, search.find(words.first()));
+        search.close();
+        assertNull(search.find(words.first()));
+    }
+    @Test public void testOpenDoesNotStayWithTheThread() throws Exception {
+        final TreeSet<String> words = write(100, 1);
+        // a search from a thread that lives on, like a pooled one, and is then dropped without close()
+        java.util.concurrent.ExecutorService pool = java.util.concurrent.Executors.newSingleThreadExecutor();
+        try {
+            java.lang.ref.WeakReference<?> bytes = pool.submit(() -> {
+                BinarySearchSortedAsciiWordFile search = BinarySearchSortedAsciiWordFile.open(file.toFile());
+                assertEquals(true, search.find(words.first()));
+                java.lang.reflect.Field field = BinarySearchSortedAsciiWordFile.class.getDeclaredField("bytes");
+                field.setAccessible(true);
+                return new java.lang.ref.WeakReference<Object>(field.get(search));
+            }).get();
+            for (int i=0; i<50 && bytes.get() != null; i++) {
+                System.gc();
+                Thread.sleep(10);
+            }
+            // the block the thread read into shouldn't keep the channel reachable
+            assertNull(bytes.get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+    @Test public void testOpenSeesRewrites() throws Exception {
+        Files.write(file, "apple banana cherry".getBytes(StandardCharsets.US_ASCII));
+        try (BinarySearchSortedAsciiWordFile search = BinarySearchSortedAsciiWordFile.open(file.toFile())) {
+            assertEquals(true, search.find("banana"));
+            // the same length, then a different one, both within the block the last call read
+            Files.write(file, "apple bbbbbb cherry".getBytes(StandardCharsets.US_ASCII));
+            assertEquals(false, search.find("banana"));
+            assertEquals(true, search.find("bbbbbb"));
+            Files.write(file, "aa bb".getBytes(StandardCharsets.US_ASCII));
+            assertEquals(false, search.find("bbbbbb"));
+            assertEquals(true, search.find("bb"));
+            assertEquals(Arrays.asList("aa", "bb"), search.startingWith("", 10));
+        }
+    }
+    @Test public void testIndexSidecar() throws Exception {
+        TreeSet<String> words = write(5000, 2);
+        File sidecar = new File(file+".idx");
+        try {
+            BinarySearchSortedAsciiWordFile search = BinarySearchSortedAsciiWordFile.open(file.toFile()).index(16, sidecar);
+            assertTrue(sidecar.exists());
+            long written = sidecar.lastModified();
+            assertFinds(words, search, 2);
+            assertFinds(words, BinarySearchSortedAsciiWordFile.map(file.toFile()).index(16, sidecar), 3);
+            assertEquals(written, sidecar.lastModified()); // read back rather than rebuilt
+
+            // a changed file gets a new sidecar, and a stale index isn't used by find()
+            TreeSet<String> changed = write(3000, 3);
+            assertFinds(changed, new BinarySearchSortedAsciiWordFile(file.toFile()).index(16, sidecar), 4);
+            assertFinds(changed, search, 5);
+            assertFinds(changed, search.index(32), 6);
+            search.close();
+        } finally {
+            sidecar.delete();
+        }
+    }
+}
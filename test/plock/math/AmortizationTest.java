@@ -0,0 +1,34 @@
+package plock.math;
+
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+@org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
+public class AmortizationTest {
+    @Test public void testAmortization() {
+        Amortization loan = new Amortization(300000, .005, 0, 360, -1798.65, 1, false);
+        Schedule.Cursor c = new Schedule(300000, .005, 0, 360, -1798.65, 1, false).cursor();
+        while (c.next()) {assertEquals(c.getBalance(), loan.balanceAt(c.getPeriod()), .000001);}
+        assertEquals(-1, loan.getPayoffPeriod()); // the payment was rounded down, so a dollar or two is left
+        assertEquals(359, loan.tolerance(1800).getPayoffPeriod());
+        loan.tolerance(.005).setExtra(12, -10000);
+        assertEquals(331, loan.getPayoffPeriod());
+        // against walking every period, after changes that also make the balance go back up
+        Random random = new Random(1);
+        for (int i=0; i<200; i++) {
+            int period = 1+random.nextInt(360);
+            if (random.nextBoolean()) {loan.setExtra(period, (random.nextDouble()-.8)*20000);}
+            else {loan.setRate(period, random.nextDouble()*.01);}
+            double[] balances = loan.balances();
+            int payoff = -1;
+            for (int p=0; p<=360 && payoff < 0; p++) {
+                if (balances[p] <= .005) {payoff = p;}
+            }
+            assertEquals(payoff, loan.getPayoffPeriod());
+            int at = random.nextInt(361);
+            assertEquals(balances[at], loan.balanceAt(at), .000001);
+            assertEquals(balances[at]-300000, loan.depositsTo(at) + loan.interestTo(at), .000001);
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package plock.math;
+
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+import static plock.math.Finance.TmvParams.*;
+
+@org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
+public class CashFlowGraphTest {
+    @Test public void testCashFlowGraph() {
+        CashFlowGraph graph = new CashFlowGraph().add("retirement", new Finance().n(10).r(.05))
+            .add("savings", new Finance().n(5).r(.05).pmt(1000)).add("unrelated", new Finance().pv(1));
+        graph.link("savings", fv, "retirement", pv);
+        assertEquals(Arrays.asList("savings", "retirement", "unrelated"), graph.getOrder());
+        assertEquals(5525.63, graph.get("retirement").getDouble(pv), .01);
+        assertEquals(5525.63*1.628894627, graph.get("retirement").getSolution(), .01);
+
+        long before = graph.getRecomputeCount();
+        graph.get("savings").pv(2000);
+        assertEquals(2000*1.2762815625+5525.63, graph.get("retirement").getDouble(pv), .01);
+        assertEquals(before+2, graph.getRecomputeCount());
+        graph.get("retirement").g(.01); // nothing downstream
+        assertEquals(before+3, graph.getRecomputeCount());
+
+        try {
+            graph.link("retirement", fv, "savings", pv);
+            fail("should not allow a cycle");
+        } catch (IllegalArgumentException e) {}
+        assertNull(graph.getLink("savings", pv));
+        assertTrue(graph.unlink("retirement", pv));
+        graph.get("savings").pv(0);
+        assertEquals(2000*1.2762815625+5525.63, graph.get("retirement").getDouble(pv), .01);
+    }
+    @Test public void testGoalSeek() {
+        CashFlowGraph graph = new CashFlowGraph().add("savings", new Finance().n(10).r(.05).pmt(1000))
+            .add("house", new Finance().n(5).r(.04).comp(12).pmt(-100))
+            .add("retirement", new Finance().n(20).r(.06).comp(12).pmt(200)).add("unrelated", new Finance().pv(1));
+        graph.link("savings", fv, "house", pv).link("house", fv, "retirement", pv);
+        double before = graph.get("retirement").getSolution();
+        Math.Solution s = graph.goalSeek("savings", pmt, "retirement", fv, 500000);
+        assertTrue(s.getMessage(), s.isConverged());
+        assertEquals(before, graph.get("retirement").getSolution(), 0); // nothing was changed while seeking
+        graph.get("savings").pmt(s.getXOrThrow());
+        assertEquals(500000, graph.get("retirement").getSolution(), .01);
+
+        // through a comp_pmt link, and between bounds
+        graph.unlink("house", pv);
+        graph.link("savings", comp_pmt, "house", comp_pmt);
+        s = graph.goalSeek("savings", pmt, "house", fv, 10000, -100000, 100000);
+        graph.get("savings").pmt(s.getXOrThrow());
+        assertEquals(10000, graph.get("house").getSolution(), .01);
+
+        try {
+            graph.goalSeek("house", comp_pmt, "retirement", fv, 1);
+            fail("comp_pmt of house is linked");
+        } catch (IllegalArgumentException e) {}
+        try {
+            graph.goalSeek("savings", pmt, "unrelated", fv, 1);
+            fail("unrelated doesn't depend on savings");
+        } catch (IllegalArgumentException e) {}
+    }
+}
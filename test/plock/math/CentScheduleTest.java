@@ -0,0 +1,59 @@
+package plock.math;
+
+import java.math.RoundingMode;
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+@org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
+public class CentScheduleTest {
+    @Test public void testCentSchedule() {
+        assertEquals(2, CentSchedule.round(2.5, RoundingMode.HALF_EVEN));
+        assertEquals(3, CentSchedule.round(2.5, RoundingMode.HALF_UP));
+        assertEquals(-3, CentSchedule.round(-2.5, RoundingMode.HALF_UP));
+        assertEquals(-2, CentSchedule.round(-2.5, RoundingMode.DOWN));
+        assertEquals(617, CentSchedule.round(12345*.05, RoundingMode.HALF_EVEN)); // a tie even though .05 isn't exact
+        // only the HALF_* modes are forgiving, the others go by the double like BigDecimal
+        assertEquals(2, CentSchedule.round(2.9999999999999, RoundingMode.FLOOR));
+        assertEquals(3, CentSchedule.round(2.9999999999999, RoundingMode.HALF_DOWN));
+        assertEquals(3, CentSchedule.round(3, RoundingMode.UNNECESSARY));
+        try {
+            CentSchedule.round(2.9999999999999, RoundingMode.UNNECESSARY);
+            fail("rounded without throwing");
+        } catch (ArithmeticException e) {}
+        Random random = new Random(16);
+        for (int i=0; i<100000; i++) {
+            double x = random.nextInt(4) == 0 ? random.nextInt(2001)/2.0-500 : (random.nextDouble()-.5)*1e6;
+            if (random.nextBoolean()) {x = java.lang.Math.nextUp(x);}
+            for (RoundingMode mode : RoundingMode.values()) {
+                if (mode.name().startsWith("HALF") && java.lang.Math.abs(java.lang.Math.abs(x%1)-.5) < 1e-9) {continue;}
+                long expected;
+                try {
+                    expected = new java.math.BigDecimal(x).setScale(0, mode).longValueExact();
+                } catch (ArithmeticException e) {
+                    try {
+                        CentSchedule.round(x, mode);
+                        fail(x+" "+mode+" didn't throw");
+                    } catch (ArithmeticException expectedToo) {}
+                    continue;
+                }
+                assertEquals(x+" "+mode, expected, CentSchedule.round(x, mode));
+            }
+        }
+        // a $300,000 loan at .5% a month for 30 years, paid off to the cent
+        CentSchedule loan = new CentSchedule(30000000, .005, 0, 360, -179865, 1, false, RoundingMode.HALF_EVEN).settleTo(0);
+        Schedule.Cursor exact = new Schedule(300000, .005, 0, 360, -1798.65, 1, false).cursor();
+        CentSchedule.Cursor c = loan.cursor();
+        while (c.next()) {
+            exact.next();
+            assertEquals(c.getStartBalance() + c.getDeposits() + c.getInterest(), c.getBalance());
+            assertEquals(exact.getBalance()*100, c.getBalance() - c.getAdjustment(), 100);
+        }
+        assertEquals(0, c.getBalance());
+        assertEquals(30000000 + c.getTotalDeposits() + c.getTotalInterest(), 0);
+        // the payment was rounded to the cent and the last payment makes up what that leaves, give or take
+        // what rounding the interest every month adds up to
+        assertEquals(-exact.getBalance()*100, c.getAdjustment(), 50);
+        assertEquals(0, loan.getClosingBalance());
+    }
+}
@@ -0,0 +1,60 @@
+package plock.math;
+
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+@org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
+public class DatedCashFlowsTest {
+    @Test public void testXirr() {
+        // the example from the spreadsheet XIRR docs, added out of order
+        DatedCashFlows flows = new DatedCashFlows().add(java.time.LocalDate.of(2009,4,1), 2750)
+            .add(java.time.LocalDate.of(2008,1,1), -10000).add(java.time.LocalDate.of(2008,3,1), 2750)
+            .add(java.time.LocalDate.of(2008,10,30), 4250).add(java.time.LocalDate.of(2009,2,15), 3250);
+        assertEquals(java.time.LocalDate.of(2008,1,1).toEpochDay(), flows.getFirstDay());
+        assertEquals(.373362535, flows.xirr(), .00000001);
+        assertEquals(0, flows.xnpv(flows.xirr()), .000001);
+        assertEquals(2086.65, flows.xnpv(.09), .01);
+        assertEquals((flows.xnpv(.0901)-flows.xnpv(.0899))/.0002, flows.xnpvDerivative(.09), .01);
+        // Newton from .1 heads below -1 for this one, so it falls back to Brent
+        assertEquals(-.63, new DatedCashFlows().add(0, -1000).add(365, 100).add(730, 100).xirr(), .001);
+        try {
+            new DatedCashFlows().add(0, -1000).add(365, -100).xirr();
+            fail("should need a positive flow");
+        } catch (IllegalArgumentException e) {}
+    }
+    @Test public void testUnsortedFromThreads() throws Exception {
+        Random random = new Random(1);
+        long[] days = new long[5000];
+        double[] amounts = new double[days.length];
+        for (int i=0; i<days.length; i++) {
+            days[i] = random.nextInt(3650);
+            amounts[i] = random.nextDouble()*2000 - 1000;
+        }
+        DatedCashFlows sorted = new DatedCashFlows(days, amounts);
+        double npv = sorted.xnpv(.05), irr = sorted.xirr();
+        for (int round=0; round<20; round++) {
+            // added out of order, so the threads that use it first all try to sort it
+            DatedCashFlows flows = new DatedCashFlows();
+            for (int i=0; i<days.length; i++) {flows.add(days[i], amounts[i]);}
+            List<Thread> threads = new ArrayList<Thread>();
+            double[] results = new double[4];
+            List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+            for (int t=0; t<results.length; t++) {
+                final int which = t;
+                threads.add(new Thread(() -> {
+                    try {
+                        results[which] = which % 2 == 0 ? flows.xnpv(.05) : flows.xirr();
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }));
+            }
+            for (Thread thread : threads) {thread.start();}
+            for (Thread thread : threads) {thread.join();}
+            assertEquals(Collections.emptyList(), failures);
+            for (int t=0; t<results.length; t++) {assertEquals(t % 2 == 0 ? npv : irr, results[t], 1e-9);}
+            assertEquals(sorted.getFirstDay(), flows.getFirstDay());
+        }
+    }
+}
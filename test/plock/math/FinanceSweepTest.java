@@ -0,0 +1,116 @@
+package plock.math;
+
+import java.util.*;
+import java.util.concurrent.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+import plock.math.Finance.TmvParams;
+
+@org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
+public class FinanceSweepTest {
+    private static FinanceSweep sweep() {
+        return new FinanceSweep().pv(1000).pmt(200).comp(12)
+            .range(TmvParams.r, .03, .09, .001).range(TmvParams.n, 5, 40, 1).range(TmvParams.g, 0, .05, .005);
+    }
+    private static double[] solutions(FinanceSweep sweep) {
+        double[] solutions = new double[(int)sweep.size()];
+        Arrays.fill(solutions, Double.NaN);
+        sweep.forEach((i, solution) -> solutions[(int)i] = solution);
+        return solutions;
+    }
+
+    @Test public void testGrid() {
+        FinanceSweep sweep = sweep();
+        assertEquals(61*36*11, sweep.size());
+        assertEquals(1, new FinanceSweep().size());
+        // the last range varies fastest
+        assertEquals(.03, sweep.valueAt(0, TmvParams.r), 1e-12);
+        assertEquals(.005, sweep.valueAt(1, TmvParams.g), 1e-12);
+        assertEquals(6, sweep.valueAt(11, TmvParams.n), 1e-12);
+        assertEquals(.031, sweep.valueAt(36*11, TmvParams.r), 1e-12);
+        assertEquals(.09, sweep.valueAt(sweep.size()-1, TmvParams.r), 1e-12);
+        assertEquals(40, sweep.valueAt(sweep.size()-1, TmvParams.n), 1e-12);
+        assertEquals(200, sweep.valueAt(12345, TmvParams.pmt), 0);
+
+        // a range added again replaces the old one
+        assertEquals(61*36*3, sweep.range(TmvParams.g, 0, .01, .005).size());
+        try {
+            sweep.range(TmvParams.fv, 0, 1, 1);
+            fail("swept the solved for parameter");
+        } catch (IllegalArgumentException e) {}
+        try {
+            sweep.solveFor(TmvParams.r);
+            fail("solved for a swept parameter");
+        } catch (IllegalArgumentException e) {}
+    }
+    @Test public void testPoints() {
+        FinanceSweep sweep = sweep();
+        double[] solutions = solutions(sweep);
+        for (int i=0; i<solutions.length; i+=7) {
+            double expected = TvmKernel.solve(TmvParams.fv, 1000, 0, sweep.valueAt(i, TmvParams.r),
+                sweep.valueAt(i, TmvParams.g), sweep.valueAt(i, TmvParams.n), 200, 12, false);
+            assertEquals(""+i, expected, solutions[i], 0);
+        }
+
+        // solving for pmt from the fv at one of the points gets the pmt back
+        FinanceSweep pmt = new FinanceSweep().pv(1000).fv(solutions[777]).comp(12).solveFor(TmvParams.pmt)
+            .range(TmvParams.r, .03, .09, .001).range(TmvParams.n, 5, 40, 1).range(TmvParams.g, 0, .05, .005);
+        double[] pmts = solutions(pmt);
+        assertEquals(200, pmts[777], 1e-6);
+    }
+    @Test public void testReducers() {
+        FinanceSweep sweep = sweep();
+        double[] solutions = solutions(sweep);
+        FinanceSweep.Extremes e = sweep.reduce(FinanceSweep.extremes());
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        long argMin = -1, argMax = -1;
+        for (int i=0; i<solutions.length; i++) {
+            if (solutions[i] < min) {min = solutions[i]; argMin = i;}
+            if (solutions[i] > max) {max = solutions[i]; argMax = i;}
+        }
+        assertEquals(solutions.length, e.getCount());
+        assertEquals(0, e.getNanCount());
+        assertEquals(min, e.getMin(), 0);
+        assertEquals(max, e.getMax(), 0);
+        assertEquals(argMin, e.getArgMin());
+        assertEquals(argMax, e.getArgMax());
+        assertEquals(.09, sweep.valueAt(e.getArgMax(), TmvParams.r), 1e-12);
+        assertEquals(40, sweep.valueAt(e.getArgMax(), TmvParams.n), 1e-12);
+
+        double low = min, high = (min+max)/2;
+        FinanceSweep.Histogram h = sweep.reduce(FinanceSweep.histogram(low, high, 10));
+        long[] bins = new long[10];
+        long over = 0;
+        for (double solution : solutions) {
+            if (solution >= high) {over++;}
+            else {bins[java.lang.Math.min(9, (int)((solution-low)/(high-low)*10))]++;}
+        }
+        assertArrayEquals(bins, h.getBins());
+        assertEquals(0, h.getUnder());
+        assertEquals(over, h.getOver());
+        assertEquals(0, h.getNanCount());
+
+        // points that can't be solved are counted as NaN
+        FinanceSweep unsolvable = new FinanceSweep().pv(1000).fv(-2000).solveFor(TmvParams.r).range(TmvParams.n, 1, 10, 1);
+        assertEquals(10, unsolvable.reduce(FinanceSweep.extremes()).getNanCount());
+        assertEquals(10, unsolvable.reduce(FinanceSweep.histogram(0, 1, 4)).getNanCount());
+    }
+    @Test public void testParallel() {
+        ForkJoinPool single = new ForkJoinPool(1), parallel = new ForkJoinPool(4);
+        try {
+            FinanceSweep sweep = sweep();
+            double[] expected = solutions(sweep.pool(single));
+            FinanceSweep.Extremes e = sweep.reduce(FinanceSweep.extremes());
+            FinanceSweep.Histogram h = sweep.reduce(FinanceSweep.histogram(0, 50000, 20));
+            for (int i=0; i<3; i++) {
+                sweep.pool(parallel);
+                assertArrayEquals(expected, solutions(sweep), 0);
+                assertEquals(e.toString(), sweep.reduce(FinanceSweep.extremes()).toString());
+                assertEquals(h.toString(), sweep.reduce(FinanceSweep.histogram(0, 50000, 20)).toString());
+            }
+        } finally {
+            single.shutdown();
+            parallel.shutdown();
+        }
+    }
+}
@@ -7,15 +7,18 @@ import static plock.math.Finance.TmvParams.*;
 
 @org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
 public class FinanceTest {
-    List<Map<String,Object>> fs = Arrays.asList(
-        f(new Finance().n(3).comp(2).g(.02).r(.08).pmt(200), 1349.32),
-        f(new Finance().n(15).comp(12).g(.02).r(.08).pmt(200), 75693.0),
-        f(new Finance().n(15).g(.02).r(.08).pmt(200).comp(12), 75693.0),
-        f(new Finance().n(5).g(.05).r(.03).pmt(2000), 11700.75),
-        f(new Finance().n(5).r(.05).pmt(1000), 5525.63),
-        f(new Finance().n(10).r(.05).pv(2000), 3257.789253554884),
-        f(new Finance().n(3).comp(2).g(.02).r(.08).pmt(200).pv(2000), 3868.742027011306)); 
-    private Map<String,Object> f(Finance f, Double val) {
+    List<Map<String,Object>> fs = cases();
+    static List<Map<String,Object>> cases() {
+        return Arrays.asList(
+            f(new Finance().n(3).comp(2).g(.02).r(.08).pmt(200), 1349.32),
+            f(new Finance().n(15).comp(12).g(.02).r(.08).pmt(200), 75693.0),
+            f(new Finance().n(15).g(.02).r(.08).pmt(200).comp(12), 75693.0),
+            f(new Finance().n(5).g(.05).r(.03).pmt(2000), 11700.75),
+            f(new Finance().n(5).r(.05).pmt(1000), 5525.63),
+            f(new Finance().n(10).r(.05).pv(2000), 3257.789253554884),
+            f(new Finance().n(3).comp(2).g(.02).r(.08).pmt(200).pv(2000), 3868.742027011306));
+    }
+    static Map<String,Object> f(Finance f, Double val) {
         Map<String,Object> values = f.getValues();
         values.put("fv", val);
         return values;
@@ -52,6 +55,62 @@ public class FinanceTest {
             assertEquals((Double)f.get("g"), new Finance(f, g).getSolution(), .0001);
         });
     }
+    @Test public void testClosedFormsMatchIteration() {
+        for (Finance.TmvParams p : Arrays.asList(pv, pmt, comp_pmt)) {
+            fs.stream().forEach(m->{
+                Finance f = new Finance(m, p);
+                assertEquals(p+" "+m, f.iterateSolution(), f.getSolution(), .001);
+                f.due(true);
+                assertEquals("due "+p+" "+m, f.iterateSolution(), f.getSolution(), .001);
+            });
+        }
+    }
+    @Test public void testDue() {
+        Finance f = new Finance().n(5).r(.05).pmt(1000).due(true);
+        assertEquals(5525.63+1000*1.2762815625, f.getSolution(), .01); // the first payment is made up front
+        assertEquals(0, f.copy().solveFor(pv).getSolution(), .001);
+        assertEquals(1000, f.copy().solveFor(pmt).getSolution(), .001);
+        assertEquals(.05, f.copy().solveFor(r).getSolution(), .0001);
+        assertEquals(5, f.copy().solveFor(n).getSolution(), .0001);
+    }
+    @Test public void testClosedFormsWhenGrowthMatchesRate() {
+        Finance growing = new Finance().n(10).comp(12).g(.04).r(.04).pmt(100).pv(500);
+        Map<String,Object> m = f(growing, growing.getSolution());
+        for (Finance.TmvParams p : Arrays.asList(pv, pmt, comp_pmt)) {
+            Finance f = new Finance(m, p);
+            assertEquals(p.toString(), f.iterateSolution(), f.getSolution(), .001);
+        }
+        assertEquals(100, new Finance(m, pmt).getSolution(), .01);
+    }
+    @Test public void testUpdate() {
+        Finance f = new Finance().n(5).r(.05).pmt(1000);
+        // like a field bound to fv, anything listening for changes forces a solve on every invalidation
+        f.getProperty(fv).addListener((obs, oldVal, newVal)->{});
+        long before = f.getRecomputeCount();
+        f.pv(10).r(.06).n(6).comp(12).pmt(900);
+        assertTrue(f.getRecomputeCount()-before > 1);
+        double expected = f.getSolution();
+
+        f.pv(0).r(.05).n(5).comp(1).pmt(1000);
+        before = f.getRecomputeCount();
+        f.update(x->x.pv(10).r(.06).n(6).comp(12).pmt(900));
+        assertEquals(before+1, f.getRecomputeCount());
+        assertEquals(expected, f.getSolution(), .0000001);
+        assertEquals(900*.06/(java.lang.Math.pow(1.06,1.0/12)-1), f.getDouble(comp_pmt), .0000001);
+
+        Finance.Batch batch = f.batch();
+        try {
+            f.update(x->x.n(7));
+            assertTrue(f.isInBatch());
+            f.g(.02);
+        } finally {
+            batch.close();
+        }
+        batch.close(); // a second close does nothing
+        assertFalse(f.isInBatch());
+        assertEquals(before+2, f.getRecomputeCount());
+        assertEquals(new Finance().pv(10).r(.06).n(7).comp(12).pmt(900).g(.02).getSolution(), f.getSolution(), .0000001);
+    }
     @Test public void testChangeToR() {
         Finance f= new Finance().comp(12).pv(123).r(.02).n(3).pmt(123);
         System.out.println("pmt: "+f.get("pmt"));
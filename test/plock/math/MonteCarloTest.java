@@ -0,0 +1,59 @@
+package plock.math;
+
+import java.util.*;
+import java.util.concurrent.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+@org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
+public class MonteCarloTest {
+    @Test public void testNoSpread() {
+        for (boolean due : new boolean[] {false, true}) {
+            for (int comp : new int[] {1, 12}) {
+                double r = .06, g = .02;
+                MonteCarlo.Result result = new MonteCarlo().pv(1000).pmt(200).comp(comp).n(30).due(due)
+                    .r(MonteCarlo.constant(r)).g(MonteCarlo.uniform(g, g)).seed(1).run(5000);
+                double fv = TvmKernel.fv(1000, r, g, 30, 200, comp, due);
+                String message = "due:"+due+",comp:"+comp;
+                assertEquals(message, 5000, result.getPaths());
+                assertEquals(message, fv, result.getMin(), fv*1e-12);
+                assertEquals(message, fv, result.getMax(), fv*1e-12);
+                assertEquals(message, fv, result.getMean(), fv*1e-12);
+                for (double p : result.percentiles(0, 5, 50, 95, 100)) {assertEquals(message, fv, p, fv*1e-12);}
+            }
+        }
+        // no periods is just the pv (and the payment, if it is due)
+        assertEquals(1200, new MonteCarlo().pv(1000).pmt(200).due(true).r(MonteCarlo.normal(.06, .2)).run(100).getMean(), 0);
+    }
+    @Test public void testPathsThatBlowUp() {
+        // now and then a rate so large the balance overflows, those paths still count and sort above the rest
+        MonteCarlo.Result result = new MonteCarlo().pv(1000).pmt(200).n(10).seed(3)
+            .r(random -> random.nextInt(20) == 0 ? 1e300 : .05).run(5000);
+        assertEquals(5000, result.getPaths());
+        assertEquals(Double.POSITIVE_INFINITY, result.getMax(), 0);
+        assertEquals(Double.POSITIVE_INFINITY, result.percentile(100), 0);
+        assertEquals(TvmKernel.fv(1000, .05, 0, 10, 200, 1, false), result.percentile(5), 20);
+    }
+    @Test public void testSeedAcrossPools() {
+        ForkJoinPool single = new ForkJoinPool(1), parallel = new ForkJoinPool(4);
+        try {
+            MonteCarlo mc = new MonteCarlo().pv(1000).pmt(200).comp(12).n(20)
+                .r(MonteCarlo.normal(.06, .12)).g(MonteCarlo.uniform(0, .03)).seed(42);
+            MonteCarlo.Result expected = mc.pool(single).run(50_000);
+            for (int i=0; i<3; i++) {
+                MonteCarlo.Result result = mc.pool(parallel).run(50_000);
+                assertEquals(expected.getMean(), result.getMean(), 0);
+                assertEquals(expected.getMin(), result.getMin(), 0);
+                assertEquals(expected.getMax(), result.getMax(), 0);
+                assertArrayEquals(expected.percentiles(1, 5, 25, 50, 75, 95, 99), result.percentiles(1, 5, 25, 50, 75, 95, 99), 0);
+            }
+            assertNotEquals(expected.getMean(), mc.seed(43).run(50_000).getMean(), 0);
+            // the spread shows up around the deterministic fv
+            double fv = TvmKernel.fv(1000, .06, .015, 20, 200, 12, false);
+            assertTrue(expected.toString(), expected.percentile(5) < fv && fv < expected.percentile(95));
+        } finally {
+            single.shutdown();
+            parallel.shutdown();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package plock.math;
+
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+@org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
+public class QuantileSketchTest {
+    private static final double[] QS = {0, .001, .01, .1, .25, .5, .75, .9, .99, .999, 1};
+
+    /** log uniform magnitudes over a few decades, some negative and some zero */
+    private static double[] samples(Random random, int count) {
+        double[] samples = new double[count];
+        for (int i=0; i<count; i++) {
+            int kind = random.nextInt(10);
+            samples[i] = kind == 0 ? 0 : (kind < 3 ? -1 : 1) * java.lang.Math.exp(random.nextDouble()*20-5);
+        }
+        return samples;
+    }
+    private static void assertQuantiles(double[] samples, QuantileSketch sketch) {
+        double[] sorted = samples.clone();
+        Arrays.sort(sorted);
+        assertEquals(sorted.length, sketch.getCount());
+        assertEquals(sorted[0], sketch.getMin(), 0);
+        assertEquals(sorted[sorted.length-1], sketch.getMax(), 0);
+        for (double q : QS) {
+            double expected = sorted[(int)(q*(sorted.length-1))];
+            assertEquals("q"+q, expected, sketch.quantile(q), java.lang.Math.abs(expected)*sketch.getRelativeAccuracy());
+        }
+    }
+
+    @Test public void testRelativeError() {
+        Random random = new Random(1);
+        for (double accuracy : new double[] {.05, .01, .005, .001}) {
+            for (int count : new int[] {1, 2, 10, 1000, 100_000}) {
+                double[] samples = samples(random, count);
+                QuantileSketch sketch = new QuantileSketch(accuracy);
+                for (double v : samples) {sketch.add(v);}
+                assertQuantiles(samples, sketch);
+            }
+        }
+        QuantileSketch sketch = new QuantileSketch().add(Double.NaN);
+        assertEquals(0, sketch.getCount());
+        assertEquals(1, sketch.getNanCount());
+        assertTrue(Double.isNaN(sketch.quantile(.5)));
+        assertEquals(3, sketch.add(3).quantile(.5), 3*.005);
+    }
+    @Test public void testInfinities() {
+        QuantileSketch sketch = new QuantileSketch().add(1).add(Double.POSITIVE_INFINITY).add(Double.POSITIVE_INFINITY)
+            .add(Double.NEGATIVE_INFINITY).add(-1e300).add(1e-300).add(Double.MAX_VALUE).add(Double.NaN);
+        assertEquals(7, sketch.getCount());
+        assertEquals(1, sketch.getNanCount());
+        assertEquals(Double.NEGATIVE_INFINITY, sketch.getMin(), 0);
+        assertEquals(Double.POSITIVE_INFINITY, sketch.getMax(), 0);
+        double[] q = sketch.quantiles(0, 1/6.0, 2/6.0, 3/6.0, 4/6.0, 5/6.0, 1);
+        assertEquals(Double.NEGATIVE_INFINITY, q[0], 0);
+        assertEquals(-1e300, q[1], 1e300*.005);
+        assertEquals(1e-300, q[2], 1e-300*.005);
+        assertEquals(1, q[3], .005);
+        assertEquals(Double.MAX_VALUE, q[4], Double.MAX_VALUE*.005);
+        assertEquals(Double.POSITIVE_INFINITY, q[5], 0);
+        assertEquals(Double.POSITIVE_INFINITY, q[6], 0);
+
+        QuantileSketch merged = new QuantileSketch().add(2).merge(sketch);
+        assertEquals(8, merged.getCount());
+        assertEquals(Double.NEGATIVE_INFINITY, merged.quantile(0), 0);
+        assertEquals(Double.POSITIVE_INFINITY, merged.quantile(1), 0);
+        assertEquals(2, merged.quantile(.6), 2*.005);
+
+        // the whole range of doubles, and the accuracy can't be so fine that the indexes for it overflow
+        QuantileSketch range = new QuantileSketch().add(Double.MIN_NORMAL).add(Double.MAX_VALUE).add(-Double.MAX_VALUE);
+        assertEquals(-Double.MAX_VALUE, range.quantile(0), Double.MAX_VALUE*.005);
+        assertEquals(Double.MIN_NORMAL, range.quantile(.5), Double.MIN_NORMAL*.005);
+        assertEquals(Double.MAX_VALUE, range.quantile(1), Double.MAX_VALUE*.005);
+        try {
+            new QuantileSketch(1e-7);
+            fail("accepted an accuracy the indexes could overflow at");
+        } catch (IllegalArgumentException e) {}
+    }
+    @Test public void testMerge() {
+        Random random = new Random(2);
+        double[] samples = samples(random, 50_000);
+        QuantileSketch whole = new QuantileSketch(.01);
+        QuantileSketch[] parts = new QuantileSketch[7];
+        for (int i=0; i<parts.length; i++) {parts[i] = new QuantileSketch(.01);}
+        for (double v : samples) {
+            whole.add(v);
+            // parts with very different ranges, so merging has to grow the buckets both ways
+            parts[java.lang.Math.min(parts.length-1, (int)(java.lang.Math.log(1+java.lang.Math.abs(v))))].add(v);
+        }
+        QuantileSketch merged = new QuantileSketch(.01);
+        for (QuantileSketch part : parts) {merged.merge(part);}
+        assertQuantiles(samples, merged);
+        assertArrayEquals(whole.quantiles(QS), merged.quantiles(QS), 0);
+        assertEquals(whole.getMean(), merged.getMean(), java.lang.Math.abs(whole.getMean())*1e-9);
+        try {
+            merged.merge(new QuantileSketch(.02));
+            fail("merged a different accuracy");
+        } catch (IllegalArgumentException e) {}
+    }
+}
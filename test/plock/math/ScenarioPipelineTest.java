@@ -0,0 +1,77 @@
+package plock.math;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+import plock.math.Finance.TmvParams;
+
+@org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
+public class ScenarioPipelineTest {
+    private Path in, out;
+    @Before public void setUp() throws Exception {
+        in = Files.createTempFile("scenarios", ".csv");
+        out = Files.createTempFile("solved", ".csv");
+    }
+    @After public void tearDown() throws Exception {
+        Files.deleteIfExists(in);
+        Files.deleteIfExists(out);
+    }
+
+    @Test public void testRun() throws Exception {
+        String csv = "id,pv,fv,r,g,n,pmt,comp,due,solveFor\r\n"
+            + "a,0,0,.05,0,5,1000,1,false,fv\r\n"
+            + "b,2000,3257.789253554884,0.05,0,10,0,1,false,pv\n"
+            + "\n"
+            + "c,0,5525.63,0,0,5,1000,1,,r\n"
+            + "d,123,456,1e-2,0,3,-7.5E1,12,true,n\n"
+            + "e,1,2,3,4,5,6,7,false,due\n"
+            + "f,0,0,.05,0,5,1000,1,true,";
+        Files.write(in, csv.getBytes(StandardCharsets.US_ASCII));
+        // a tiny chunk size so nearly every line is its own chunk
+        assertEquals(6, new ScenarioPipeline().threads(3).chunkSize(16).run(in, out));
+        List<String> lines = Files.readAllLines(out, StandardCharsets.US_ASCII);
+        assertEquals(7, lines.size());
+        assertEquals("id,pv,fv,r,g,n,pmt,comp,due,solveFor,solution", lines.get(0));
+        assertEquals("a,0,0,.05,0,5,1000,1,false,fv,5525.63125", lines.get(1));
+        assertEquals(2000, solution(lines.get(2)), .0000001);
+        assertEquals(.05, solution(lines.get(3)), .0001);
+        assertEquals(TvmKernel.solve(TmvParams.n, 123, 456, .01, 0, 0, -75, 12, true), solution(lines.get(4)), .0000001);
+        assertEquals("e,1,2,3,4,5,6,7,false,due,NaN", lines.get(5));
+        assertEquals(TvmKernel.fv(0, .05, 0, 5, 1000, 1, true), solution(lines.get(6)), .0000001);
+    }
+    @Test public void testBadComp() throws Exception {
+        for (String comp : new String[] {"0", "-12", ".5", "NaN"}) {
+            String csv = "pv,r,n,pmt,comp\n1000,.05,10,100,12\n\n1000,.05,10,100,"+comp+"\n1000,.05,10,100,1\n";
+            Files.write(in, csv.getBytes(StandardCharsets.US_ASCII));
+            try {
+                new ScenarioPipeline().threads(2).chunkSize(8).run(in, out);
+                fail("solved with comp of "+comp);
+            } catch (IllegalArgumentException e) {
+                assertTrue(e.getMessage(), e.getMessage().endsWith("on line 4"));
+            }
+        }
+    }
+    private static double solution(String line) {return Double.parseDouble(line.substring(line.lastIndexOf(',')+1));}
+
+    @Test public void testParseAndWrite() {
+        Random random = new Random(1);
+        ScenarioPipeline.Output out = new ScenarioPipeline.Output(null, 64);
+        for (int i=0; i<10000; i++) {
+            double x = (random.nextDouble()-.5) * java.lang.Math.pow(10, random.nextInt(12)-4);
+            for (String s : new String[] {Double.toString(x), String.format("%.6f", x), String.format("%.3e", x)}) {
+                ByteBuffer b = ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+                assertEquals(s, Double.parseDouble(s), ScenarioPipeline.parseDouble(b, 0, b.limit(), 0), 0);
+            }
+            out.buffer.clear();
+            ScenarioPipeline.writeDouble(out, x, 10);
+            out.buffer.flip();
+            byte[] written = new byte[out.buffer.remaining()];
+            out.buffer.get(written);
+            assertEquals(x, Double.parseDouble(new String(written, StandardCharsets.US_ASCII)),
+                .00000000005 + 2*java.lang.Math.ulp(x)); // half the last decimal, and what the double itself can hold
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package plock.math;
+
+import java.util.*;
+import java.util.stream.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+@org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
+public class ScheduleTest {
+    /** pv, r, g, n, pmt, including r == g and no interest */
+    private static final double[][] CASES = {
+        {1000, .06, .02, 30, 200}, {0, .05, .05, 25, 100}, {-5000, 0, .03, 12, 500}, {2500, .08, 0, 100.5, -50}, {0, .04, 0, 0, 10}};
+
+    private static void assertPeriodEquals(Schedule.Period expected, Schedule.Period actual) {
+        String message = expected+" "+actual;
+        double tolerance = 1e-9*(1+java.lang.Math.abs(expected.getBalance()));
+        assertEquals(message, expected.getPeriod(), actual.getPeriod());
+        assertEquals(message, expected.getStartBalance(), actual.getStartBalance(), tolerance);
+        assertEquals(message, expected.getDeposits(), actual.getDeposits(), tolerance);
+        assertEquals(message, expected.getInterest(), actual.getInterest(), tolerance);
+        assertEquals(message, expected.getBalance(), actual.getBalance(), tolerance);
+    }
+
+    @Test public void testCursor() {
+        for (double[] c : CASES) {
+            for (int comp : new int[] {1, 4, 12}) {
+                for (boolean due : new boolean[] {false, true}) {
+                    Schedule schedule = new Schedule(c[0], c[1], c[2], c[3], c[4], comp, due);
+                    assertEquals((int)c[3], schedule.getPeriods());
+                    assertEquals(TvmKernel.fv(c[0], c[1], c[2], 0, c[4], comp, due), schedule.getOpeningBalance(), 1e-9);
+                    Schedule.Cursor cursor = schedule.cursor();
+                    double previous = schedule.getOpeningBalance(), payment = c[4];
+                    int n = 0;
+                    while (cursor.next()) {
+                        n++;
+                        double fv = TvmKernel.fv(c[0], c[1], c[2], n, c[4], comp, due);
+                        String message = Arrays.toString(c)+",comp:"+comp+",due:"+due+",n:"+n;
+                        assertEquals(message, n, cursor.getPeriod());
+                        assertEquals(message, fv, cursor.getBalance(), 1e-9*(1+java.lang.Math.abs(fv)));
+                        assertEquals(message, fv, schedule.balanceAt(n), 1e-9*(1+java.lang.Math.abs(fv)));
+                        assertEquals(message, previous, cursor.getStartBalance(), 0);
+                        assertEquals(message, payment*comp, cursor.getDeposits(), 1e-9*(1+java.lang.Math.abs(payment)));
+                        assertEquals(message, cursor.getBalance()-previous-cursor.getDeposits(), cursor.getInterest(), 0);
+                        previous = cursor.getBalance();
+                        payment *= 1+c[2];
+                    }
+                    assertEquals(schedule.getPeriods(), n);
+                    assertFalse(cursor.next());
+                }
+            }
+        }
+    }
+    @Test public void testParallel() {
+        for (double[] c : CASES) {
+            Schedule schedule = new Schedule(c[0], c[1], c[2], c[3], c[4], 12, true);
+            List<Schedule.Period> expected = new ArrayList<Schedule.Period>();
+            for (Schedule.Period period : schedule) {expected.add(period);}
+            assertEquals(schedule.getPeriods(), expected.size());
+
+            List<Schedule.Period> sequential = schedule.stream().collect(Collectors.toList());
+            List<Schedule.Period> parallel = schedule.parallelStream().collect(Collectors.toList());
+            assertEquals(expected.size(), sequential.size());
+            assertEquals(expected.size(), parallel.size());
+            for (int i=0; i<expected.size(); i++) {
+                assertPeriodEquals(expected.get(i), sequential.get(i));
+                assertPeriodEquals(expected.get(i), parallel.get(i));
+            }
+            assertEquals(schedule.stream().mapToDouble(Schedule.Period::getInterest).sum(),
+                schedule.parallelStream().mapToDouble(Schedule.Period::getInterest).sum(), 1e-6);
+
+            // split all the way down by hand, the pieces should line up end to end
+            List<Spliterator<Schedule.Period>> pieces = new ArrayList<Spliterator<Schedule.Period>>();
+            split(schedule.spliterator(), pieces);
+            List<Schedule.Period> joined = new ArrayList<Schedule.Period>();
+            for (Spliterator<Schedule.Period> piece : pieces) {
+                long size = piece.estimateSize();
+                piece.forEachRemaining(joined::add);
+                assertEquals(0, piece.estimateSize());
+                assertTrue(size <= 1);
+            }
+            assertEquals(expected.size(), joined.size());
+            for (int i=0; i<expected.size(); i++) {assertPeriodEquals(expected.get(i), joined.get(i));}
+        }
+        // once it has started it doesn't split
+        Spliterator<Schedule.Period> started = new Schedule(1000, .06, .02, 30, 200, 1, false).spliterator();
+        assertTrue(started.tryAdvance(period -> assertEquals(1, period.getPeriod())));
+        assertEquals(29, started.estimateSize());
+        assertNull(started.trySplit());
+    }
+    private static void split(Spliterator<Schedule.Period> spliterator, List<Spliterator<Schedule.Period>> pieces) {
+        long size = spliterator.estimateSize();
+        Spliterator<Schedule.Period> first = spliterator.trySplit();
+        if (first == null) {
+            pieces.add(spliterator);
+            return;
+        }
+        assertEquals(size, first.estimateSize() + spliterator.estimateSize());
+        split(first, pieces);
+        split(spliterator, pieces);
+    }
+}
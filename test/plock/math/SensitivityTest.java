@@ -0,0 +1,29 @@
+package plock.math;
+
+import static org.junit.Assert.*;
+import org.junit.*;
+import static plock.math.Finance.TmvParams.*;
+
+@org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
+public class SensitivityTest {
+    @Test public void testSensitivity() {
+        Finance f = new Finance().n(10).comp(12).r(.05).g(.02).pmt(200).pv(1000);
+        Sensitivity s = f.fvSensitivity();
+        double h = .00001;
+        assertEquals(f.getSolution(), s.getValue(), .000001);
+        assertEquals((f.copy().r(.05+h).getSolution()-f.copy().r(.05-h).getSolution())/(2*h), s.getDr(), .01);
+        assertEquals((f.copy().g(.02+h).getSolution()-f.copy().g(.02-h).getSolution())/(2*h), s.getDg(), .01);
+        assertEquals((f.copy().n(10+h).getSolution()-f.copy().n(10-h).getSolution())/(2*h), s.getDn(), .01);
+        // a zero coupon bond, pv is fv/(1+r)^n so modified duration is n/(1+r) and convexity n(n+1)/(1+r)^2
+        s = new Sensitivity().pv(1000, .05, 0, 10, 0, 1, false);
+        assertEquals(10/1.05, s.getModifiedDuration(), .0000001);
+        assertEquals(10, s.getMacaulayDuration(), .0000001);
+        assertEquals(110/1.05/1.05, s.getConvexity(), .0000001);
+        // growth equal to the rate goes through the series
+        double[] dr = new double[1];
+        new TvmBatch(1).r(new double[]{.05}).g(new double[]{.05}).n(new double[]{10}).pmt(new double[]{100})
+            .sensitivity(fv, null, dr, null, null, null);
+        double up = TvmKernel.fv(0, .05+h, .05, 10, 100, 1, false), down = TvmKernel.fv(0, .05-h, .05, 10, 100, 1, false);
+        assertEquals((up-down)/(2*h), dr[0], .001);
+    }
+}
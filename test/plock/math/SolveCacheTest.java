@@ -0,0 +1,34 @@
+package plock.math;
+
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+import static plock.math.Finance.TmvParams.*;
+
+@org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
+public class SolveCacheTest {
+    List<Map<String,Object>> fs = FinanceTest.cases();
+    @Test public void testSolveCache() {
+        SolveCache cache = new SolveCache(2);
+        assertEquals(.05, cache.solve(r, 0, 5525.63, 0, 0, 5, 1000, 1, false), .0001);
+        assertEquals(.03, cache.solve(r, 0, 11700.75, 0, .05, 5, 2000, 1, false), .0001);
+        // the r passed in is what is being solved for, so it isn't part of the key
+        assertEquals(.05, cache.solve(r, 0, 5525.63, .5, 0, 5, 1000, 1, false), .0001);
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.getMisses());
+        assertEquals(10, cache.solve(n, 2000, 3257.789253554884, .05, 0, 0, 0, 1, false), .0001);
+        assertEquals(1, cache.getEvictions());
+        assertEquals(2, cache.size());
+
+        // through Finance, the second and third cases are the same account with comp set in a different order
+        SolveCache shared = new SolveCache(2);
+        fs.stream().forEach(f->assertEquals((Double)f.get("r"), new Finance(f, r).solveCache(shared).getSolution(), .0001));
+        assertEquals(1, shared.getHits());
+        assertEquals(fs.size()-1, shared.getMisses());
+        assertEquals(fs.size()-3, shared.getEvictions());
+        Map<String,Object> last = fs.get(fs.size()-1);
+        assertEquals((Double)last.get("r"), new Finance(last, r).solveCache(shared).getSolution(), .0001);
+        assertEquals(2, shared.getHits());
+        assertEquals(2, shared.size());
+    }
+}
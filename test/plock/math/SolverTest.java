@@ -0,0 +1,23 @@
+package plock.math;
+
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+import static plock.math.Finance.TmvParams.*;
+
+@org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
+public class SolverTest {
+    List<Map<String,Object>> fs = FinanceTest.cases();
+    @Test public void testSolverMethods() {
+        for (Math.Method method : Math.Method.values()) {
+            fs.stream().forEach(f->{
+                assertEquals((Double)f.get("r"), new Finance(f, r).solver(r, TvmKernel.defaultSolver(r).method(method)).getSolution(), .0001);
+                assertEquals((Double)f.get("n"), new Finance(f, n).solver(n, TvmKernel.defaultSolver(n).method(method)).getSolution(), .0001);
+            });
+        }
+        Math.Solution s = new Math.Solver().solve(x->x*x, 2, 1);
+        assertTrue(s.isConverged());
+        assertEquals(java.lang.Math.sqrt(2), s.getX(), .00001);
+        assertFalse(new Math.Solver().maxEvaluations(5).solve(x->x*x, -1, 1).isConverged());
+    }
+}
@@ -0,0 +1,27 @@
+package plock.math;
+
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+import static plock.math.Finance.TmvParams.*;
+
+@org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
+public class TvmBatchTest {
+    List<Map<String,Object>> fs = FinanceTest.cases();
+    @Test public void testBatchR() {
+        int size = fs.size();
+        double[] pvs = new double[size], fvs = new double[size], gs = new double[size], ns = new double[size],
+            pmts = new double[size], guesses = new double[size], expected = new double[size];
+        int[] comps = new int[size];
+        for (int i=0; i<size; i++) {
+            Map<String,Object> f = fs.get(i);
+            pvs[i] = (Double)f.get("pv"); fvs[i] = (Double)f.get("fv"); gs[i] = (Double)f.get("g");
+            ns[i] = (Double)f.get("n"); pmts[i] = (Double)f.get("pmt"); comps[i] = (Integer)f.get("comp");
+            expected[i] = (Double)f.get("r");
+            guesses[i] = i%2 == 0 ? Double.NaN : .5;
+        }
+        TvmBatch batch = new TvmBatch(size).pv(pvs).fv(fvs).g(gs).n(ns).pmt(pmts).comp(comps).solveFor(r);
+        assertArrayEquals(expected, batch.solve(new double[size]), .0001);
+        assertArrayEquals(expected, batch.guess(guesses).solve(new double[size], java.util.concurrent.ForkJoinPool.commonPool()), .0001);
+    }
+}
@@ -0,0 +1,29 @@
+package plock.math;
+
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+@org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
+public class TvmKernelTest {
+    /** adds up the payments one at a time, the k-th grown by g k times and earning r for the periods after it */
+    private static double sumOfPayments(double r, double g, int n) {
+        double sum = 0;
+        for (int k=0; k<n; k++) {sum += java.lang.Math.pow(1+g, k) * java.lang.Math.pow(1+r, n-1-k);}
+        return sum;
+    }
+    @Test public void testGrowingAnnuityFactor() {
+        double[][] rgs = {{.05, .02}, {.05, .05}, {.05, .05+1e-15}, {.03, -.5}, {.05, -1}, {.05, -2}, {.1, -3.5},
+            {-1.5, -2}, {0, 0}, {0, -1}};
+        for (double[] rg : rgs) {
+            for (int n : new int[] {0, 1, 2, 7, 10, 30}) {
+                double expected = sumOfPayments(rg[0], rg[1], n);
+                assertEquals(Arrays.toString(rg)+" n:"+n, expected, TvmKernel.growingAnnuityFactor(rg[0], rg[1], n),
+                    1e-9*(1+java.lang.Math.abs(expected)));
+            }
+        }
+        // a payment that stops after the first period
+        assertEquals(100*java.lang.Math.pow(1.05, 10) + 10*java.lang.Math.pow(1.05, 9),
+            TvmKernel.fv(100, .05, -1, 10, 10, 1, false), 1e-9);
+    }
+}
@@ -0,0 +1,95 @@
+package plock.math;
+
+import java.util.*;
+import static org.junit.Assert.*;
+import org.junit.*;
+
+/** TvmVector against TvmKernel a row at a time.  Run with the java17 classes ahead of the others and
+ *   --add-modules jdk.incubator.vector this checks the vector lanes, otherwise the scalar loops.
+ */
+@org.junit.runner.RunWith(org.junit.runners.JUnit4.class)
+public class TvmVectorTest {
+    private double[] pv, fv, r, g, n, pmt;
+    private int[] comp;
+    private boolean[] due;
+
+    /** random rows, with a share of the special cases the lanes blend in: r == g, r of 0, comp of 1, g of -1 or less */
+    private void fill(Random random, int size) {
+        pv = new double[size]; fv = new double[size]; r = new double[size]; g = new double[size];
+        n = new double[size]; pmt = new double[size]; comp = new int[size]; due = new boolean[size];
+        int[] comps = {1, 2, 4, 12, 52, 365};
+        for (int i=0; i<size; i++) {
+            pv[i] = random.nextInt(4) == 0 ? 0 : (random.nextDouble()-.3)*100000;
+            fv[i] = (random.nextDouble()-.3)*500000;
+            r[i] = random.nextInt(6) == 0 ? 0 : random.nextDouble()*.2-.05;
+            g[i] = random.nextInt(5) == 0 ? r[i] : random.nextInt(10) == 0 ? -1-random.nextInt(3)*.5 : random.nextDouble()*.1-.02;
+            n[i] = random.nextInt(3) == 0 ? random.nextInt(60) : random.nextDouble()*60;
+            pmt[i] = random.nextInt(5) == 0 ? 0 : (random.nextDouble()-.3)*2000;
+            comp[i] = comps[random.nextInt(comps.length)];
+            due[i] = random.nextBoolean();
+        }
+    }
+    private static void assertClose(String message, double expected, double actual, double scale) {
+        if (Double.isNaN(expected) || Double.isInfinite(expected)) {
+            assertEquals(message, (Object)expected, (Object)actual);
+        } else {
+            assertEquals(message, expected, actual, 1e-10*(1+scale));
+        }
+    }
+    private String row(int i) {
+        return "row "+i+" {pv:"+pv[i]+",fv:"+fv[i]+",r:"+r[i]+",g:"+g[i]+",n:"+n[i]+",pmt:"+pmt[i]
+            +",comp:"+comp[i]+",due:"+due[i]+"} vectorized:"+TvmVector.isVectorized();
+    }
+
+    @Test public void testParity() {
+        Random random = new Random(17);
+        // lengths on both sides of multiples of any lane count, and ranges that start part way into a vector
+        for (int size : new int[] {0, 1, 2, 3, 5, 7, 8, 9, 15, 16, 17, 31, 33, 63, 65, 1000, 1023}) {
+            for (int trial=0; trial<5; trial++) {
+                fill(random, size);
+                int from = size == 0 ? 0 : random.nextInt(java.lang.Math.min(size, 5)), to = trial == 0 ? size : from + random.nextInt(size-from+1);
+                double[] fvOut = new double[size], pvOut = new double[size];
+                Arrays.fill(fvOut, -1);
+                Arrays.fill(pvOut, -1);
+                TvmVector.fv(pv, r, g, n, pmt, comp, due, fvOut, from, to);
+                TvmVector.pv(fv, r, g, n, pmt, comp, due, pvOut, from, to);
+                for (int i=0; i<size; i++) {
+                    if (i < from || i >= to) {
+                        assertEquals("outside of the range, "+row(i), -1, fvOut[i], 0);
+                        assertEquals("outside of the range, "+row(i), -1, pvOut[i], 0);
+                        continue;
+                    }
+                    double rateFactor = TvmKernel.rateFactor(r[i], n[i]);
+                    double payments = java.lang.Math.abs(TvmKernel.compPmt(pmt[i], r[i], comp[i])
+                        * TvmKernel.growingAnnuityFactor(r[i], g[i], n[i]));
+                    assertClose("fv "+row(i), TvmKernel.fv(pv[i], r[i], g[i], n[i], pmt[i], comp[i], due[i]), fvOut[i],
+                        (java.lang.Math.abs(pv[i])+java.lang.Math.abs(pmt[i]))*rateFactor + payments);
+                    assertClose("pv "+row(i), TvmKernel.solvePv(fv[i], r[i], g[i], n[i], pmt[i], comp[i], due[i]), pvOut[i],
+                        (java.lang.Math.abs(fv[i])+payments)/rateFactor + java.lang.Math.abs(pmt[i]));
+                }
+            }
+        }
+    }
+    @Test public void testSpecialRows() {
+        // every row of a vector the same special case, so no lane is left to the general formula
+        for (int size : new int[] {4, 8, 16, 19}) {
+            fill(new Random(size), size);
+            Arrays.fill(r, .05);
+            Arrays.fill(g, .05);
+            Arrays.fill(comp, 12);
+            double[] out = new double[size];
+            TvmVector.fv(pv, r, g, n, pmt, comp, due, out, 0, size);
+            for (int i=0; i<size; i++) {
+                assertEquals(row(i), TvmKernel.fv(pv[i], r[i], g[i], n[i], pmt[i], comp[i], due[i]), out[i],
+                    1e-10*(1+java.lang.Math.abs(out[i])));
+            }
+            Arrays.fill(r, 0);
+            Arrays.fill(comp, 1);
+            TvmVector.pv(fv, r, g, n, pmt, comp, due, out, 0, size);
+            for (int i=0; i<size; i++) {
+                assertEquals(row(i), TvmKernel.solvePv(fv[i], r[i], g[i], n[i], pmt[i], comp[i], due[i]), out[i],
+                    1e-10*(1+java.lang.Math.abs(out[i])));
+            }
+        }
+    }
+}